@@ -0,0 +1,252 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.tensorflow.demo.env.ImageUtils;
+import org.tensorflow.demo.env.ImageUtilsReference;
+
+/**
+ * Checks every native method in ImageUtils against ImageUtilsReference, which must match it bit
+ * for bit. Runs each one on random images of every size from 1x1 to 34x34, with Y row strides of
+ * the width, the width + 3 and the width + 16, UV pixel strides of 1 and 2, and UV rows with and
+ * without padding. The encoders take no strides and are checked up to 39x39 with a range of
+ * thread counts instead. Prints the first few mismatches and exits with status 1 if there were
+ * any.
+ *
+ * <p>Needs libimageutil on java.library.path and the Android stubs in host/stubs on the class
+ * path; see {@code make -C host parity}.
+ */
+public class ImageUtilsParityTest {
+  private static final int MAX_SIZE = 34;
+  private static final int MAX_REPORTED = 20;
+  private static final int MAX_ENCODER_SIZE = 39;
+  private static final int MAX_ENCODER_THREADS = 9;
+
+  private static final Random random = new Random(1);
+  private static int checks = 0;
+  private static int failures = 0;
+
+  private static void check(final boolean ok, final String format, final Object... args) {
+    ++checks;
+    if (!ok && ++failures <= MAX_REPORTED) {
+      System.out.println("FAIL " + String.format(format, args));
+    }
+  }
+
+  private static byte[] randomBytes(final int length) {
+    final byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  private static ByteBuffer direct(final byte[] bytes) {
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes);
+    buffer.clear();
+    return buffer;
+  }
+
+  /** The packed YUV420SP decoders, which take the UV plane's row stride to be the width. */
+  private static void checkPackedDecoders(final int width, final int height) {
+    // Odd widths read one byte past the last UV pair of a row.
+    final byte[] input = randomBytes(width * height + width * ((height + 1) / 2) + 2);
+    final int[] expected = new int[width * height];
+    final int[] actual = new int[width * height];
+
+    ImageUtilsReference.convertYUV420SPToARGB8888(input, expected, width, height, false);
+    ImageUtils.convertYUV420SPToARGB8888(input, actual, width, height, false);
+    check(Arrays.equals(expected, actual), "convertYUV420SPToARGB8888 %dx%d", width, height);
+
+    Arrays.fill(expected, 0);
+    Arrays.fill(actual, 0);
+    ImageUtilsReference.convertYUV420SPToARGB8888(input, expected, width, height, true);
+    ImageUtils.convertYUV420SPToARGB8888(input, actual, width, height, true);
+    check(Arrays.equals(expected, actual),
+        "convertYUV420SPToARGB8888 half size %dx%d", width, height);
+
+    Arrays.fill(expected, 0);
+    Arrays.fill(actual, 0);
+    ImageUtilsReference.convertYUV420ToARGB8888(
+        input, null, null, expected, width, height, width, width, 2, true);
+    ImageUtils.convertYUV420ToARGB8888(
+        input, null, null, actual, width, height, width, width, 2, true);
+    check(Arrays.equals(expected, actual),
+        "convertYUV420ToARGB8888 half size %dx%d", width, height);
+
+    final byte[] expected565 = new byte[2 * width * height];
+    final byte[] actual565 = new byte[2 * width * height];
+    ImageUtilsReference.convertYUV420SPToRGB565(input, expected565, width, height);
+    ImageUtils.convertYUV420SPToRGB565(input, actual565, width, height);
+    check(Arrays.equals(expected565, actual565), "convertYUV420SPToRGB565 %dx%d", width, height);
+  }
+
+  /** The planar decoders and the luma kernels, which take arbitrary strides. */
+  private static void checkStridedKernels(
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride) {
+    final String params =
+        String.format("%dx%d yRowStride=%d uvRowStride=%d uvPixelStride=%d",
+            width, height, yRowStride, uvRowStride, uvPixelStride);
+    final int uvLength = uvRowStride * ((height - 1) / 2) + ((width - 1) / 2) * uvPixelStride + 1;
+    final byte[] y = randomBytes(yRowStride * (height - 1) + width);
+    final byte[] u = randomBytes(uvLength);
+    final byte[] v = randomBytes(uvLength);
+    final int[] expected = new int[width * height];
+    final int[] actual = new int[width * height];
+
+    ImageUtilsReference.convertYUV420ToARGB8888(
+        y, u, v, expected, width, height, yRowStride, uvRowStride, uvPixelStride, false);
+    ImageUtils.convertYUV420ToARGB8888(
+        y, u, v, actual, width, height, yRowStride, uvRowStride, uvPixelStride, false);
+    check(Arrays.equals(expected, actual), "convertYUV420ToARGB8888 %s", params);
+
+    Arrays.fill(actual, 0);
+    ImageUtils.convertYUV420ToARGB8888Direct(
+        direct(y), direct(u), direct(v), actual, width, height,
+        yRowStride, uvRowStride, uvPixelStride);
+    check(Arrays.equals(expected, actual), "convertYUV420ToARGB8888Direct %s", params);
+
+    if (uvPixelStride != 1 || uvRowStride != (width + 1) / 2) {
+      // The luma kernels only depend on the Y plane, so one UV layout per Y stride is enough.
+      return;
+    }
+    final ByteBuffer yBuffer = direct(y);
+    for (int step = 1; step <= 3; ++step) {
+      final float expectedVariance =
+          ImageUtilsReference.computeLaplacianVariance(yBuffer, width, height, yRowStride, step);
+      final float actualVariance =
+          ImageUtils.computeLaplacianVariance(yBuffer, width, height, yRowStride, step);
+      check(Float.compare(expectedVariance, actualVariance) == 0,
+          "computeLaplacianVariance %s step=%d: %s != %s",
+          params, step, expectedVariance, actualVariance);
+
+      final float expectedMean =
+          ImageUtilsReference.computeMeanLuminance(yBuffer, width, height, yRowStride, step);
+      final float actualMean =
+          ImageUtils.computeMeanLuminance(yBuffer, width, height, yRowStride, step);
+      check(Float.compare(expectedMean, actualMean) == 0,
+          "computeMeanLuminance %s step=%d: %s != %s", params, step, expectedMean, actualMean);
+    }
+
+    for (final int outWidth : new int[] {1, 5, 8}) {
+      for (final int outHeight : new int[] {1, 3, 6}) {
+        final byte[] expectedThumb = new byte[outWidth * outHeight];
+        final byte[] actualThumb = new byte[outWidth * outHeight];
+        ImageUtilsReference.downsampleLuma(
+            yBuffer, width, height, yRowStride, expectedThumb, outWidth, outHeight);
+        ImageUtils.downsampleLuma(
+            yBuffer, width, height, yRowStride, actualThumb, outWidth, outHeight);
+        check(Arrays.equals(expectedThumb, actualThumb),
+            "downsampleLuma %s to %dx%d", params, outWidth, outHeight);
+
+        final int length = Math.min(expectedThumb.length, y.length);
+        final float expectedDifference =
+            ImageUtilsReference.computeLumaDifference(expectedThumb, y, length);
+        final float actualDifference = ImageUtils.computeLumaDifference(actualThumb, y, length);
+        check(Float.compare(expectedDifference, actualDifference) == 0,
+            "computeLumaDifference length=%d: %s != %s",
+            length, expectedDifference, actualDifference);
+      }
+    }
+  }
+
+  /**
+   * The 2x2 block encoders, single-threaded and split into bands of row pairs. Every thread count
+   * from 0 up to two more than the image has row pairs is tried, and one beyond the native cap of
+   * 8 threads. The output starts out as garbage, since the block encoders write each byte once
+   * instead of accumulating into a cleared UV plane as the reference does.
+   */
+  private static void checkEncoders(final int width, final int height) {
+    final int[] argb = new int[width * height];
+    for (int i = 0; i < argb.length; ++i) {
+      argb[i] = random.nextInt();
+    }
+    final byte[] rgb565 = randomBytes(2 * width * height);
+    final byte[] expectedArgb = new byte[ImageUtils.getYUVByteSize(width, height)];
+    final byte[] expected565 = new byte[expectedArgb.length];
+    final byte[] actual = new byte[expectedArgb.length];
+    ImageUtilsReference.convertARGB8888ToYUV420SP(argb, expectedArgb, width, height);
+    ImageUtilsReference.convertRGB565ToYUV420SP(rgb565, expected565, width, height);
+
+    random.nextBytes(actual);
+    ImageUtils.convertARGB8888ToYUV420SP(argb, actual, width, height);
+    check(Arrays.equals(expectedArgb, actual), "convertARGB8888ToYUV420SP %dx%d", width, height);
+
+    random.nextBytes(actual);
+    ImageUtils.convertRGB565ToYUV420SP(rgb565, actual, width, height);
+    check(Arrays.equals(expected565, actual), "convertRGB565ToYUV420SP %dx%d", width, height);
+
+    final int rowPairs = (height + 1) / 2;
+    for (int threads = 0; threads <= rowPairs + 2; ++threads) {
+      checkThreadedEncoders(argb, rgb565, expectedArgb, expected565, width, height, threads);
+    }
+    if (MAX_ENCODER_THREADS > rowPairs + 2) {
+      checkThreadedEncoders(
+          argb, rgb565, expectedArgb, expected565, width, height, MAX_ENCODER_THREADS);
+    }
+  }
+
+  private static void checkThreadedEncoders(
+      final int[] argb,
+      final byte[] rgb565,
+      final byte[] expectedArgb,
+      final byte[] expected565,
+      final int width,
+      final int height,
+      final int threads) {
+    final byte[] actual = randomBytes(expectedArgb.length);
+    ImageUtils.convertARGB8888ToYUV420SPThreaded(argb, actual, width, height, threads);
+    check(Arrays.equals(expectedArgb, actual),
+        "convertARGB8888ToYUV420SPThreaded %dx%d threads=%d", width, height, threads);
+
+    random.nextBytes(actual);
+    ImageUtils.convertRGB565ToYUV420SPThreaded(rgb565, actual, width, height, threads);
+    check(Arrays.equals(expected565, actual),
+        "convertRGB565ToYUV420SPThreaded %dx%d threads=%d", width, height, threads);
+  }
+
+  public static void main(final String[] args) {
+    System.out.println("Kernels: " + ImageUtils.getKernelVariant());
+
+    for (int width = 1; width <= MAX_SIZE; ++width) {
+      for (int height = 1; height <= MAX_SIZE; ++height) {
+        checkPackedDecoders(width, height);
+        for (final int yRowStride : new int[] {width, width + 3, width + 16}) {
+          for (final int uvPixelStride : new int[] {1, 2}) {
+            for (final int uvPadding : new int[] {0, 5}) {
+              final int uvRowStride = ((width + 1) / 2) * uvPixelStride + uvPadding;
+              checkStridedKernels(width, height, yRowStride, uvRowStride, uvPixelStride);
+            }
+          }
+        }
+      }
+    }
+    for (int width = 1; width <= MAX_ENCODER_SIZE; ++width) {
+      for (int height = 1; height <= MAX_ENCODER_SIZE; ++height) {
+        checkEncoders(width, height);
+      }
+    }
+
+    System.out.println(String.format("%d checks, %d failed", checks, failures));
+    if (failures > 0) {
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Random;
+import org.tensorflow.demo.RecipeIndex;
+import org.tensorflow.demo.RecipeIndexBuilder;
+import org.tensorflow.demo.env.CsvReader;
+
+/**
+ * Generates a synthetic recipe corpus in the format of assets/recipes.csv, then reports how long
+ * RecipeIndexBuilder takes to index it and the peak heap used while doing so, as the build step
+ * and the on-device fallback do. It then writes the binary index next to the corpus and reports
+ * how long mapping it and a first query take, as the app does at startup. Some names are quoted
+ * and contain commas and quotes, so the quoting paths of CsvReader are exercised too.
+ *
+ * <p>Usage: RecipeLoadBenchmark [corpus file] [recipe count]
+ */
+public class RecipeLoadBenchmark {
+  private static final int DEFAULT_RECIPES = 100000;
+  private static final int VOCABULARY = 5000;
+  private static final int MAX_INGREDIENTS = 15;
+
+  public static void main(final String[] args) throws IOException {
+    final File file = new File(args.length > 0 ? args[0] : "recipes_benchmark.csv");
+    final int recipes = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RECIPES;
+    writeCorpus(file, recipes);
+    System.out.printf("Corpus: %d recipes, %.1f MB%n", recipes, file.length() / 1e6);
+
+    // Warm up the JIT with one load, then measure a fresh one.
+    load(file);
+    System.gc();
+    final long baseline = usedHeap();
+    resetPeaks();
+
+    final long start = System.nanoTime();
+    final RecipeIndexBuilder builder = load(file);
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    final long peak = peakHeap();
+    System.gc();
+    final long retained = usedHeap();
+
+    System.out.printf(
+        "Parsed %d recipes in %.0f ms (%.0f recipes/s)%n",
+        builder.getRecipeCount(), seconds * 1e3, builder.getRecipeCount() / seconds);
+    System.out.printf(
+        "Heap: peak %.1f MB above baseline, %.1f MB retained by the builder%n",
+        (peak - baseline) / 1e6, (retained - baseline) / 1e6);
+
+    final File indexFile = new File(file.getPath().replaceFirst("\\.csv$", "") + ".idx");
+    final OutputStream out = new BufferedOutputStream(new FileOutputStream(indexFile));
+    try {
+      builder.writeTo(out);
+    } finally {
+      out.close();
+    }
+
+    final ArrayList<String> query = new ArrayList<String>();
+    query.add("ingredient 0");
+    query.add("ingredient 100");
+    query.add("ingredient 2000");
+    final RecipeIndex.Matches matches = new RecipeIndex.Matches();
+    final long mapStart = System.nanoTime();
+    final RecipeIndex index = RecipeIndex.open(indexFile);
+    final double mapSeconds = (System.nanoTime() - mapStart) / 1e9;
+    index.query(query, matches);
+    final double querySeconds = (System.nanoTime() - mapStart) / 1e9 - mapSeconds;
+    System.out.printf(
+        "Index: %d recipes, %d ingredients, %.1f MB; mapped in %.2f ms, "
+            + "first query (%d matches) in %.2f ms%n",
+        index.getRecipeCount(), index.getIngredientCount(), indexFile.length() / 1e6,
+        mapSeconds * 1e3, matches.size(), querySeconds * 1e3);
+    final long verifyStart = System.nanoTime();
+    if (!index.verifyChecksum()) {
+      throw new IOException("Checksum mismatch in " + indexFile);
+    }
+    System.out.printf("Checksum verified in %.0f ms%n", (System.nanoTime() - verifyStart) / 1e6);
+  }
+
+  private static RecipeIndexBuilder load(final File file) throws IOException {
+    final RecipeIndexBuilder builder = new RecipeIndexBuilder();
+    final CsvReader reader =
+        new CsvReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      final int skipped = builder.addRecipes(reader);
+      if (skipped > 0) {
+        throw new IOException("Skipped " + skipped + " records");
+      }
+    } finally {
+      reader.close();
+    }
+    return builder;
+  }
+
+  private static void writeCorpus(final File file, final int recipes) throws IOException {
+    final Random random = new Random(42);
+    final Writer out =
+        new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try {
+      for (int i = 0; i < recipes; ++i) {
+        if (i % 10 == 0) {
+          out.write("\"Recipe " + i + ", with \"\"extras\"\"\"");
+        } else {
+          out.write("Recipe " + i);
+        }
+        out.write(",https://example.com/recipes/" + i);
+        final int count = 1 + random.nextInt(MAX_INGREDIENTS);
+        for (int j = 0; j < count; ++j) {
+          // Skewed towards common ingredients, like real recipes.
+          final int ingredient = (int) (VOCABULARY * Math.pow(random.nextDouble(), 3));
+          out.write(",ingredient " + ingredient);
+        }
+        out.write('\n');
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static long usedHeap() {
+    final Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static void resetPeaks() {
+    for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  private static long peakHeap() {
+    long peak = 0;
+    for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+}
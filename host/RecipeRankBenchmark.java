@@ -0,0 +1,276 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.tensorflow.demo.RecipeIndex;
+import org.tensorflow.demo.RecipeIndexBuilder;
+import org.tensorflow.demo.RecipeMatcher;
+import org.tensorflow.demo.RecipeScorer;
+
+/**
+ * Indexes a synthetic corpus of a million recipes, then compares RecipeIndex.queryTop against
+ * matching every recipe with RecipeIndex.query and scoring all of the matches, for each built-in
+ * scorer. Reports per-query latency and how many recipes were scored. Then replays the queries
+ * one ingredient at a time through a RecipeMatcher, as the camera finds them, and reports the
+ * latency of each change and of reading the top k afterwards. Finally runs the queries through
+ * RecipeIndex.queryTop with a ForkJoinPool of 1 to N threads and reports the speedup over the
+ * sequential search, overall and for the slowest tenth of queries, which are the ones the shards
+ * are for.
+ *
+ * <p>Usage: RecipeRankBenchmark [recipe count] [k] [max threads]
+ */
+public class RecipeRankBenchmark {
+  private static final int DEFAULT_RECIPES = 1000000;
+  private static final int DEFAULT_K = 10;
+  private static final int VOCABULARY = 20000;
+  private static final int MAX_INGREDIENTS = 15;
+  private static final int QUERIES = 200;
+  private static final int MAX_DETECTED = 8;
+
+  /** Counts the recipes a scorer is asked to score. */
+  private static class CountingScorer implements RecipeScorer {
+    final RecipeScorer scorer;
+    long scored = 0;
+
+    CountingScorer(final RecipeScorer scorer) {
+      this.scorer = scorer;
+    }
+
+    @Override
+    public void prepare(final RecipeIndex index, final int[] ingredients, final int count) {
+      scorer.prepare(index, ingredients, count);
+    }
+
+    @Override
+    public float score(final RecipeIndex index, final int recipe, final int hits) {
+      ++scored;
+      return scorer.score(index, recipe, hits);
+    }
+
+    @Override
+    public float bound(final int setSize) {
+      return scorer.bound(setSize);
+    }
+  }
+
+  public static void main(final String[] args) throws IOException {
+    final int recipes = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RECIPES;
+    final int k = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_K;
+    final int maxThreads =
+        args.length > 2
+            ? Integer.parseInt(args[2])
+            : Math.max(4, Runtime.getRuntime().availableProcessors());
+    final Random random = new Random(42);
+
+    final RecipeIndexBuilder builder = new RecipeIndexBuilder();
+    final ArrayList<String> ingredients = new ArrayList<String>();
+    for (int i = 0; i < recipes; ++i) {
+      ingredients.clear();
+      final int count = 1 + random.nextInt(MAX_INGREDIENTS);
+      for (int j = 0; j < count; ++j) {
+        // Skewed towards common ingredients, like real recipes.
+        ingredients.add("ingredient " + (int) (VOCABULARY * Math.pow(random.nextDouble(), 3)));
+      }
+      builder.addRecipe("Recipe " + i, "https://example.com/recipes/" + i, ingredients);
+    }
+    final RecipeIndex index = new RecipeIndex(builder.build());
+    System.out.printf(
+        "Corpus: %d recipes, %d ingredients; top %d of %d queries of 1-%d ingredients%n",
+        index.getRecipeCount(), index.getIngredientCount(), k, QUERIES, MAX_DETECTED);
+
+    final List<List<String>> queries = new ArrayList<List<String>>();
+    for (int q = 0; q < QUERIES; ++q) {
+      final List<String> query = new ArrayList<String>();
+      final int count = 1 + random.nextInt(MAX_DETECTED);
+      for (int j = 0; j < count; ++j) {
+        query.add("ingredient " + (int) (VOCABULARY * Math.pow(random.nextDouble(), 2)));
+      }
+      queries.add(query);
+    }
+
+    final RecipeScorer[] scorers = {
+      new RecipeScorer.Coverage(), new RecipeScorer.FewestMissing(), new RecipeScorer.Rarity()
+    };
+    final String[] names = {"coverage", "fewest missing", "rarity"};
+    for (int s = 0; s < scorers.length; ++s) {
+      final CountingScorer scorer = new CountingScorer(scorers[s]);
+      // Warm up, then measure.
+      run(index, queries, k, scorer, true);
+      run(index, queries, k, scorer, false);
+      scorer.scored = 0;
+      final long[] top = run(index, queries, k, scorer, true);
+      final long topScored = scorer.scored;
+      scorer.scored = 0;
+      final long[] full = run(index, queries, k, scorer, false);
+      System.out.printf(
+          "%-15s queryTop p50 %6.2f ms p99 %6.2f ms, %8.0f scored | "
+              + "full p50 %6.2f ms p99 %6.2f ms, %8.0f scored%n",
+          names[s], percentile(top, 50), percentile(top, 99), (double) topScored / QUERIES,
+          percentile(full, 50), percentile(full, 99), (double) scorer.scored / QUERIES);
+    }
+
+    final RecipeMatcher session = new RecipeMatcher(index, new RecipeScorer.Coverage());
+    final RecipeIndex.Matches matches = new RecipeIndex.Matches();
+    final long[] changes = new long[2 * QUERIES * MAX_DETECTED];
+    final long[] reads = new long[QUERIES * MAX_DETECTED];
+    int changeCount = 0;
+    int readCount = 0;
+    for (int pass = 0; pass < 2; ++pass) {
+      changeCount = 0;
+      readCount = 0;
+      for (final List<String> query : queries) {
+        for (final String ingredient : query) {
+          long start = System.nanoTime();
+          session.add(ingredient);
+          changes[changeCount++] = System.nanoTime() - start;
+          start = System.nanoTime();
+          session.getTop(k, matches);
+          reads[readCount++] = System.nanoTime() - start;
+        }
+        for (final String ingredient : query) {
+          final long start = System.nanoTime();
+          session.remove(ingredient);
+          changes[changeCount++] = System.nanoTime() - start;
+        }
+      }
+    }
+    System.out.printf(
+        "session        add/remove p50 %6.3f ms p99 %6.3f ms | top %d p50 %6.3f ms p99 %6.3f ms%n",
+        percentile(Arrays.copyOf(changes, changeCount), 50),
+        percentile(Arrays.copyOf(changes, changeCount), 99), k,
+        percentile(Arrays.copyOf(reads, readCount), 50),
+        percentile(Arrays.copyOf(reads, readCount), 99));
+
+    // The slowest tenth of queries without a pool, which the parallel scan is meant for.
+    final RecipeScorer coverage = new RecipeScorer.Coverage();
+    runParallel(index, queries, k, coverage, null);
+    final long[] sequential = runParallel(index, queries, k, coverage, null);
+    final Integer[] order = new Integer[QUERIES];
+    for (int q = 0; q < QUERIES; ++q) {
+      order[q] = q;
+    }
+    Arrays.sort(
+        order,
+        new Comparator<Integer>() {
+          @Override
+          public int compare(final Integer a, final Integer b) {
+            return Long.compare(sequential[b], sequential[a]);
+          }
+        });
+    final int slowCount = QUERIES / 10;
+    System.out.printf(
+        "parallel, %d cores: sequential mean %6.2f ms, slowest tenth %6.2f ms%n",
+        Runtime.getRuntime().availableProcessors(),
+        mean(sequential, order, QUERIES),
+        mean(sequential, order, slowCount));
+    for (int threads = 1; threads <= maxThreads; ++threads) {
+      final ForkJoinPool pool = new ForkJoinPool(threads);
+      runParallel(index, queries, k, coverage, pool);
+      final long[] times = runParallel(index, queries, k, coverage, pool);
+      pool.shutdown();
+      System.out.printf(
+          "%2d threads     p50 %6.2f ms p99 %6.2f ms, mean %6.2f ms (%4.2fx), "
+              + "slowest tenth %6.2f ms (%4.2fx)%n",
+          threads, percentile(times, 50), percentile(times, 99),
+          mean(times, order, QUERIES),
+          mean(sequential, order, QUERIES) / mean(times, order, QUERIES),
+          mean(times, order, slowCount),
+          mean(sequential, order, slowCount) / mean(times, order, slowCount));
+    }
+  }
+
+  /** Runs every query through queryTop with a pool, or none, and returns their latencies. */
+  private static long[] runParallel(
+      final RecipeIndex index,
+      final List<List<String>> queries,
+      final int k,
+      final RecipeScorer scorer,
+      final ForkJoinPool pool) {
+    final RecipeIndex.Matches matches = new RecipeIndex.Matches();
+    final long[] times = new long[queries.size()];
+    for (int q = 0; q < queries.size(); ++q) {
+      final long start = System.nanoTime();
+      index.queryTop(queries.get(q), k, scorer, pool, matches);
+      times[q] = System.nanoTime() - start;
+    }
+    return times;
+  }
+
+  /** Returns the mean in milliseconds of the first count queries in the given order. */
+  private static double mean(final long[] times, final Integer[] order, final int count) {
+    long total = 0;
+    for (int i = 0; i < count; ++i) {
+      total += times[order[i]];
+    }
+    return total / 1e6 / count;
+  }
+
+  /** Runs every query and returns their latencies in nanoseconds. */
+  private static long[] run(
+      final RecipeIndex index,
+      final List<List<String>> queries,
+      final int k,
+      final RecipeScorer scorer,
+      final boolean early) {
+    final RecipeIndex.Matches matches = new RecipeIndex.Matches();
+    final float[] scores = new float[index.getRecipeCount()];
+    final int[] ids = new int[MAX_DETECTED];
+    final long[] times = new long[queries.size()];
+    for (int q = 0; q < queries.size(); ++q) {
+      final long start = System.nanoTime();
+      if (early) {
+        index.queryTop(queries.get(q), k, scorer, matches);
+      } else {
+        index.query(queries.get(q), matches);
+        int count = 0;
+        for (final String name : queries.get(q)) {
+          final int id = index.getIngredientId(name);
+          if (id >= 0 && !contains(ids, count, id)) {
+            ids[count++] = id;
+          }
+        }
+        scorer.prepare(index, ids, count);
+        for (int i = 0; i < matches.size(); ++i) {
+          scores[i] = -scorer.score(index, matches.getRecipe(i), matches.getHits(i));
+        }
+        // Stands in for selecting the top k; sorting all scores is the naive cost.
+        Arrays.sort(scores, 0, matches.size());
+      }
+      times[q] = System.nanoTime() - start;
+    }
+    return times;
+  }
+
+  private static boolean contains(final int[] values, final int count, final int value) {
+    for (int i = 0; i < count; ++i) {
+      if (values[i] == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static double percentile(final long[] times, final int percent) {
+    final long[] sorted = times.clone();
+    Arrays.sort(sorted);
+    return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)] / 1e6;
+  }
+}
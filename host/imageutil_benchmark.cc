@@ -0,0 +1,179 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+// Reports the throughput of each imageutil kernel in megapixels per second
+// at common camera resolutions. This lives outside jni/ so that it isn't
+// compiled into the Android library.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <time.h>
+
+#include <vector>
+
+#include "lumautils.h"
+#include "rgb2yuv.h"
+#include "yuv2rgb.h"
+
+namespace {
+
+volatile float g_sink;
+
+// The per-pixel encoders the 2x2 block encoders in rgb2yuv.cc replaced, kept
+// as a baseline. Each pixel adds its share of the block's U and V to the
+// output, so the block is cleared by its first pixel.
+inline void LegacyWriteYUV(const int x, const int y, const int width,
+                           const int r8, const int g8, const int b8,
+                           uint8_t* const pY, uint8_t* const pUV) {
+  *pY = ((66 * r8 + 129 * g8 + 25 * b8 + 128) >> 8) + 16;
+
+  const int blocks_per_row = (width + 1) / 2;
+  const int offset = 2 * (((y / 2) * blocks_per_row + (x / 2)));
+  if (!(x & 1) && !(y & 1)) {
+    pUV[offset] = 0;
+    pUV[offset + 1] = 0;
+  }
+  pUV[offset] += ((112 * r8 - 94 * g8 - 18 * b8 + 128) >> 10) + 32;
+  pUV[offset + 1] += ((-38 * r8 - 74 * g8 + 112 * b8 + 128) >> 10) + 32;
+}
+
+void LegacyARGB8888ToYUV420SP(const uint32_t* const input,
+                              uint8_t* const output, const int width,
+                              const int height) {
+  uint8_t* pY = output;
+  uint8_t* const pUV = output + width * height;
+  const uint32_t* in = input;
+  for (int y = 0; y < height; y++) {
+    for (int x = 0; x < width; x++) {
+      const uint32_t rgb = *in++;
+      LegacyWriteYUV(x, y, width, (rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF,
+                     rgb & 0xFF, pY++, pUV);
+    }
+  }
+}
+
+void LegacyRGB565ToYUV420SP(const uint16_t* const input, uint8_t* const output,
+                            const int width, const int height) {
+  uint8_t* pY = output;
+  uint8_t* const pUV = output + width * height;
+  const uint16_t* in = input;
+  for (int y = 0; y < height; y++) {
+    for (int x = 0; x < width; x++) {
+      const uint32_t rgb = *in++;
+      const int r5 = (rgb >> 11) & 0x1F;
+      const int g6 = (rgb >> 5) & 0x3F;
+      const int b5 = rgb & 0x1F;
+      LegacyWriteYUV(x, y, width, r5 << 3 | r5 >> 2, g6 << 2 | g6 >> 4,
+                     b5 << 3 | b5 >> 2, pY++, pUV);
+    }
+  }
+}
+
+double NowSeconds() {
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC, &ts);
+  return ts.tv_sec + ts.tv_nsec * 1e-9;
+}
+
+// Runs the kernel repeatedly for at least half a second and prints the
+// average time per call and the resulting megapixels per second.
+template <typename Kernel>
+void Run(const char* const name, const int width, const int height,
+         Kernel kernel) {
+  kernel();  // Warm up caches and page in the buffers.
+
+  int iterations = 0;
+  const double start = NowSeconds();
+  double elapsed = 0.0;
+  do {
+    kernel();
+    ++iterations;
+    elapsed = NowSeconds() - start;
+  } while (elapsed < 0.5);
+
+  const double seconds_per_call = elapsed / iterations;
+  printf("%-30s %4dx%-4d %8.3f ms %9.1f MP/s\n", name, width, height,
+         seconds_per_call * 1e3, width * height / seconds_per_call / 1e6);
+}
+
+void Benchmark(const int width, const int height) {
+  const int pixels = width * height;
+  const int uv_size = ((width + 1) / 2) * ((height + 1) / 2) * 2;
+
+  std::vector<uint8_t> yuv(pixels + uv_size);
+  std::vector<uint32_t> argb(pixels);
+  std::vector<uint16_t> rgb565(pixels);
+  std::vector<uint8_t> thumbnail(32 * 24);
+  for (size_t i = 0; i < yuv.size(); ++i) yuv[i] = rand();
+  for (size_t i = 0; i < argb.size(); ++i) argb[i] = rand();
+  for (size_t i = 0; i < rgb565.size(); ++i) rgb565[i] = rand();
+
+  uint8_t* const y = &yuv[0];
+  uint8_t* const uv = y + pixels;
+
+  Run("YUV420ToARGB8888", width, height, [&] {
+    ConvertYUV420ToARGB8888(y, uv + 1, uv, &argb[0], width, height, width,
+                            width, 2);
+  });
+  Run("YUV420ToARGB8888Generic", width, height, [&] {
+    ConvertYUV420ToARGB8888Generic(y, uv + 1, uv, &argb[0], width, height,
+                                   width, width, 2);
+  });
+  Run("YUV420SPToARGB8888", width, height, [&] {
+    ConvertYUV420SPToARGB8888(y, uv, &argb[0], width, height);
+  });
+  Run("YUV420SPToARGB8888HalfSize", width, height, [&] {
+    ConvertYUV420SPToARGB8888HalfSize(y, &argb[0], width, height);
+  });
+  Run("YUV420SPToRGB565", width, height, [&] {
+    ConvertYUV420SPToRGB565(y, &rgb565[0], width, height);
+  });
+  Run("ARGB8888ToYUV420SP per-pixel", width, height, [&] {
+    LegacyARGB8888ToYUV420SP(&argb[0], y, width, height);
+  });
+  Run("ARGB8888ToYUV420SP", width, height, [&] {
+    ConvertARGB8888ToYUV420SP(&argb[0], y, width, height);
+  });
+  Run("ARGB8888ToYUV420SP x4", width, height, [&] {
+    ConvertARGB8888ToYUV420SPThreaded(&argb[0], y, width, height, 4);
+  });
+  Run("RGB565ToYUV420SP per-pixel", width, height, [&] {
+    LegacyRGB565ToYUV420SP(&rgb565[0], y, width, height);
+  });
+  Run("RGB565ToYUV420SP", width, height, [&] {
+    ConvertRGB565ToYUV420SP(&rgb565[0], y, width, height);
+  });
+  Run("LaplacianVariance step 2", width, height, [&] {
+    g_sink = ComputeLaplacianVariance(y, width, height, width, 2);
+  });
+  Run("MeanLuminance step 2", width, height, [&] {
+    g_sink = ComputeMeanLuminance(y, width, height, width, 2);
+  });
+  Run("DownsampleLuma 32x24", width, height, [&] {
+    DownsampleLuma(y, width, height, width, &thumbnail[0], 32, 24);
+  });
+}
+
+}  // namespace
+
+int main(int argc, char** argv) {
+  printf("Kernels: %s\n\n", SelectImageUtilKernels());
+  static const int kSizes[][2] = {{640, 480}, {1280, 720}, {1920, 1080}};
+  for (size_t i = 0; i < sizeof(kSizes) / sizeof(kSizes[0]); ++i) {
+    Benchmark(kSizes[i][0], kSizes[i][1]);
+    printf("\n");
+  }
+  return 0;
+}
@@ -0,0 +1,39 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package android.graphics;
+
+import java.io.OutputStream;
+
+/** Host stand-in so ImageUtils compiles off-device; the parity test never calls it. */
+public class Bitmap {
+  public enum CompressFormat {
+    JPEG,
+    PNG,
+    WEBP
+  }
+
+  public int getWidth() {
+    throw new UnsupportedOperationException();
+  }
+
+  public int getHeight() {
+    throw new UnsupportedOperationException();
+  }
+
+  public boolean compress(final CompressFormat format, final int quality, final OutputStream out) {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,31 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package android.graphics;
+
+/** Host stand-in so ImageUtils compiles off-device; the parity test never calls it. */
+public class Matrix {
+  public boolean postTranslate(final float dx, final float dy) {
+    throw new UnsupportedOperationException();
+  }
+
+  public boolean postRotate(final float degrees) {
+    throw new UnsupportedOperationException();
+  }
+
+  public boolean postScale(final float sx, final float sy) {
+    throw new UnsupportedOperationException();
+  }
+}
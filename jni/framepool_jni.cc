@@ -0,0 +1,56 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+// This file provides the aligned native allocations backing the Java
+// FramePool's direct buffers.
+
+#include <jni.h>
+#include <stdlib.h>
+
+#define FRAMEPOOL_METHOD(METHOD_NAME) \
+  Java_org_tensorflow_demo_env_FramePool_##METHOD_NAME  // NOLINT
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+JNIEXPORT jobject JNICALL
+FRAMEPOOL_METHOD(allocateNative)(
+    JNIEnv* env, jclass clazz, jint capacity, jint alignment);
+
+JNIEXPORT void JNICALL
+FRAMEPOOL_METHOD(freeNative)(
+    JNIEnv* env, jclass clazz, jobject buffer);
+
+#ifdef __cplusplus
+}
+#endif
+
+JNIEXPORT jobject JNICALL
+FRAMEPOOL_METHOD(allocateNative)(
+    JNIEnv* env, jclass clazz, jint capacity, jint alignment) {
+  void* data = NULL;
+  // posix_memalign requires a non-zero size to guarantee a unique pointer.
+  if (posix_memalign(&data, alignment, capacity > 0 ? capacity : 1) != 0) {
+    return NULL;
+  }
+  return env->NewDirectByteBuffer(data, capacity);
+}
+
+JNIEXPORT void JNICALL
+FRAMEPOOL_METHOD(freeNative)(
+    JNIEnv* env, jclass clazz, jobject buffer) {
+  free(env->GetDirectBufferAddress(buffer));
+}
@@ -20,6 +20,7 @@ limitations under the License.
 #include <stdio.h>
 #include <stdlib.h>
 
+#include "lumautils.h"
 #include "rgb2yuv.h"
 #include "yuv2rgb.h"
 
@@ -30,6 +31,9 @@ limitations under the License.
 extern "C" {
 #endif
 
+JNIEXPORT jstring JNICALL
+IMAGEUTILS_METHOD(selectKernels)(JNIEnv* env, jclass clazz);
+
 JNIEXPORT void JNICALL
 IMAGEUTILS_METHOD(convertYUV420SPToARGB8888)(
     JNIEnv* env, jclass clazz, jbyteArray input, jintArray output,
@@ -40,6 +44,11 @@ JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888)(
     jintArray output, jint width, jint height, jint y_row_stride,
     jint uv_row_stride, jint uv_pixel_stride, jboolean halfSize);
 
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888Direct)(
+    JNIEnv* env, jclass clazz, jobject y, jobject u, jobject v,
+    jintArray output, jint width, jint height, jint y_row_stride,
+    jint uv_row_stride, jint uv_pixel_stride);
+
 JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToRGB565)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output, jint width,
     jint height);
@@ -54,10 +63,44 @@ IMAGEUTILS_METHOD(convertRGB565ToYUV420SP)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output,
     jint width, jint height);
 
+JNIEXPORT void JNICALL
+IMAGEUTILS_METHOD(convertARGB8888ToYUV420SPThreaded)(
+    JNIEnv* env, jclass clazz, jintArray input, jbyteArray output,
+    jint width, jint height, jint num_threads);
+
+JNIEXPORT void JNICALL
+IMAGEUTILS_METHOD(convertRGB565ToYUV420SPThreaded)(
+    JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output,
+    jint width, jint height, jint num_threads);
+
+JNIEXPORT jfloat JNICALL
+IMAGEUTILS_METHOD(computeLaplacianVariance)(
+    JNIEnv* env, jclass clazz, jobject y, jint width, jint height,
+    jint y_row_stride, jint step);
+
+JNIEXPORT jfloat JNICALL
+IMAGEUTILS_METHOD(computeMeanLuminance)(
+    JNIEnv* env, jclass clazz, jobject y, jint width, jint height,
+    jint y_row_stride, jint step);
+
+JNIEXPORT void JNICALL
+IMAGEUTILS_METHOD(downsampleLuma)(
+    JNIEnv* env, jclass clazz, jobject y, jint width, jint height,
+    jint y_row_stride, jbyteArray output, jint out_width, jint out_height);
+
+JNIEXPORT jfloat JNICALL
+IMAGEUTILS_METHOD(computeLumaDifference)(
+    JNIEnv* env, jclass clazz, jbyteArray a, jbyteArray b, jint length);
+
 #ifdef __cplusplus
 }
 #endif
 
+JNIEXPORT jstring JNICALL
+IMAGEUTILS_METHOD(selectKernels)(JNIEnv* env, jclass clazz) {
+  return env->NewStringUTF(SelectImageUtilKernels());
+}
+
 JNIEXPORT void JNICALL
 IMAGEUTILS_METHOD(convertYUV420SPToARGB8888)(
     JNIEnv* env, jclass clazz, jbyteArray input, jintArray output,
@@ -112,6 +155,27 @@ JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888)(
   env->ReleaseIntArrayElements(output, o, 0);
 }
 
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888Direct)(
+    JNIEnv* env, jclass clazz, jobject y, jobject u, jobject v,
+    jintArray output, jint width, jint height, jint y_row_stride,
+    jint uv_row_stride, jint uv_pixel_stride) {
+  const uint8_t* const y_buff =
+      static_cast<uint8_t*>(env->GetDirectBufferAddress(y));
+  const uint8_t* const u_buff =
+      static_cast<uint8_t*>(env->GetDirectBufferAddress(u));
+  const uint8_t* const v_buff =
+      static_cast<uint8_t*>(env->GetDirectBufferAddress(v));
+
+  jboolean outputCopy = JNI_FALSE;
+  jint* const o = env->GetIntArrayElements(output, &outputCopy);
+
+  ConvertYUV420ToARGB8888(y_buff, u_buff, v_buff,
+                          reinterpret_cast<uint32_t*>(o), width, height,
+                          y_row_stride, uv_row_stride, uv_pixel_stride);
+
+  env->ReleaseIntArrayElements(output, o, 0);
+}
+
 JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToRGB565)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output, jint width,
     jint height) {
@@ -161,3 +225,91 @@ IMAGEUTILS_METHOD(convertRGB565ToYUV420SP)(
   env->ReleaseByteArrayElements(input, i, JNI_ABORT);
   env->ReleaseByteArrayElements(output, o, 0);
 }
+
+JNIEXPORT void JNICALL
+IMAGEUTILS_METHOD(convertARGB8888ToYUV420SPThreaded)(
+    JNIEnv* env, jclass clazz, jintArray input, jbyteArray output,
+    jint width, jint height, jint num_threads) {
+  jboolean inputCopy = JNI_FALSE;
+  jint* const i = env->GetIntArrayElements(input, &inputCopy);
+
+  jboolean outputCopy = JNI_FALSE;
+  jbyte* const o = env->GetByteArrayElements(output, &outputCopy);
+
+  ConvertARGB8888ToYUV420SPThreaded(reinterpret_cast<uint32_t*>(i),
+                                    reinterpret_cast<uint8_t*>(o), width,
+                                    height, num_threads);
+
+  env->ReleaseIntArrayElements(input, i, JNI_ABORT);
+  env->ReleaseByteArrayElements(output, o, 0);
+}
+
+JNIEXPORT void JNICALL
+IMAGEUTILS_METHOD(convertRGB565ToYUV420SPThreaded)(
+    JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output,
+    jint width, jint height, jint num_threads) {
+  jboolean inputCopy = JNI_FALSE;
+  jbyte* const i = env->GetByteArrayElements(input, &inputCopy);
+
+  jboolean outputCopy = JNI_FALSE;
+  jbyte* const o = env->GetByteArrayElements(output, &outputCopy);
+
+  ConvertRGB565ToYUV420SPThreaded(reinterpret_cast<uint16_t*>(i),
+                                  reinterpret_cast<uint8_t*>(o), width,
+                                  height, num_threads);
+
+  env->ReleaseByteArrayElements(input, i, JNI_ABORT);
+  env->ReleaseByteArrayElements(output, o, 0);
+}
+
+JNIEXPORT jfloat JNICALL
+IMAGEUTILS_METHOD(computeLaplacianVariance)(
+    JNIEnv* env, jclass clazz, jobject y, jint width, jint height,
+    jint y_row_stride, jint step) {
+  const uint8_t* const y_buff =
+      static_cast<uint8_t*>(env->GetDirectBufferAddress(y));
+
+  return ComputeLaplacianVariance(y_buff, width, height, y_row_stride, step);
+}
+
+JNIEXPORT jfloat JNICALL
+IMAGEUTILS_METHOD(computeMeanLuminance)(
+    JNIEnv* env, jclass clazz, jobject y, jint width, jint height,
+    jint y_row_stride, jint step) {
+  const uint8_t* const y_buff =
+      static_cast<uint8_t*>(env->GetDirectBufferAddress(y));
+
+  return ComputeMeanLuminance(y_buff, width, height, y_row_stride, step);
+}
+
+JNIEXPORT void JNICALL
+IMAGEUTILS_METHOD(downsampleLuma)(
+    JNIEnv* env, jclass clazz, jobject y, jint width, jint height,
+    jint y_row_stride, jbyteArray output, jint out_width, jint out_height) {
+  const uint8_t* const y_buff =
+      static_cast<uint8_t*>(env->GetDirectBufferAddress(y));
+
+  jboolean outputCopy = JNI_FALSE;
+  jbyte* const o = env->GetByteArrayElements(output, &outputCopy);
+
+  DownsampleLuma(y_buff, width, height, y_row_stride,
+                 reinterpret_cast<uint8_t*>(o), out_width, out_height);
+
+  env->ReleaseByteArrayElements(output, o, 0);
+}
+
+JNIEXPORT jfloat JNICALL
+IMAGEUTILS_METHOD(computeLumaDifference)(
+    JNIEnv* env, jclass clazz, jbyteArray a, jbyteArray b, jint length) {
+  jboolean inputCopy = JNI_FALSE;
+  jbyte* const a_buff = env->GetByteArrayElements(a, &inputCopy);
+  jbyte* const b_buff = env->GetByteArrayElements(b, &inputCopy);
+
+  const float result =
+      ComputeLumaDifference(reinterpret_cast<uint8_t*>(a_buff),
+                            reinterpret_cast<uint8_t*>(b_buff), length);
+
+  env->ReleaseByteArrayElements(a, a_buff, JNI_ABORT);
+  env->ReleaseByteArrayElements(b, b_buff, JNI_ABORT);
+  return result;
+}
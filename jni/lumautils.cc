@@ -0,0 +1,121 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+// These utility functions compute cheap statistics over the Y plane so that
+// frames can be rejected before the full ARGB conversion and inference.
+
+#include "lumautils.h"
+
+float ComputeLaplacianVariance(const uint8_t* const yData, const int width,
+                               const int height, const int y_row_stride,
+                               const int step) {
+  if (width < 3 || height < 3 || step < 1) {
+    return 0.0f;
+  }
+
+  int64_t sum = 0;
+  int64_t sum_sq = 0;
+  int64_t count = 0;
+
+  // Rows are subsampled but each sampled row is walked contiguously so the
+  // inner loop vectorizes. A Laplacian of 8 bit input lies in [-1020, 1020],
+  // so the per-row 32 bit accumulators cannot overflow for rows of up to
+  // 4096 pixels.
+  for (int y = 1; y < height - 1; y += step) {
+    const uint8_t* const row = yData + y * y_row_stride;
+    const uint8_t* const above = row - y_row_stride;
+    const uint8_t* const below = row + y_row_stride;
+    int32_t row_sum = 0;
+    uint32_t row_sum_sq = 0;
+    for (int x = 1; x < width - 1; ++x) {
+      const int32_t lap =
+          above[x] + below[x] + row[x - 1] + row[x + 1] - 4 * row[x];
+      row_sum += lap;
+      row_sum_sq += static_cast<uint32_t>(lap * lap);
+    }
+    sum += row_sum;
+    sum_sq += row_sum_sq;
+    count += width - 2;
+  }
+
+  const double mean = static_cast<double>(sum) / count;
+  return static_cast<float>(static_cast<double>(sum_sq) / count - mean * mean);
+}
+
+float ComputeMeanLuminance(const uint8_t* const yData, const int width,
+                           const int height, const int y_row_stride,
+                           const int step) {
+  if (width <= 0 || height <= 0 || step < 1) {
+    return 0.0f;
+  }
+
+  int64_t sum = 0;
+  int64_t count = 0;
+  for (int y = 0; y < height; y += step) {
+    const uint8_t* const row = yData + y * y_row_stride;
+    uint32_t row_sum = 0;
+    for (int x = 0; x < width; ++x) {
+      row_sum += row[x];
+    }
+    sum += row_sum;
+    count += width;
+  }
+  return static_cast<float>(static_cast<double>(sum) / count);
+}
+
+void DownsampleLuma(const uint8_t* const yData, const int width,
+                    const int height, const int y_row_stride,
+                    uint8_t* const output, const int out_width,
+                    const int out_height) {
+  uint8_t* out = output;
+
+  for (int oy = 0; oy < out_height; ++oy) {
+    // Block bounds are computed so that every source row and column belongs
+    // to exactly one block, even when the sizes don't divide evenly.
+    const int y0 = oy * height / out_height;
+    int y1 = (oy + 1) * height / out_height;
+    if (y1 <= y0) y1 = y0 + 1;
+
+    for (int ox = 0; ox < out_width; ++ox) {
+      const int x0 = ox * width / out_width;
+      int x1 = (ox + 1) * width / out_width;
+      if (x1 <= x0) x1 = x0 + 1;
+
+      int sum = 0;
+      for (int y = y0; y < y1; ++y) {
+        const uint8_t* const row = yData + y * y_row_stride;
+        for (int x = x0; x < x1; ++x) {
+          sum += row[x];
+        }
+      }
+      const int area = (y1 - y0) * (x1 - x0);
+      *out++ = static_cast<uint8_t>((sum + area / 2) / area);
+    }
+  }
+}
+
+float ComputeLumaDifference(const uint8_t* const a, const uint8_t* const b,
+                            const int length) {
+  if (length <= 0) {
+    return 0.0f;
+  }
+
+  int64_t sum = 0;
+  for (int i = 0; i < length; ++i) {
+    const int d = a[i] - b[i];
+    sum += d < 0 ? -d : d;
+  }
+  return static_cast<float>(static_cast<double>(sum) / length);
+}
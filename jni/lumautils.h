@@ -0,0 +1,56 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+// This is a collection of routines which analyze the luminance (Y) plane of a
+// YUV 4:2:0 image without converting it to RGB.
+
+#ifndef ORG_TENSORFLOW_JNI_IMAGEUTILS_LUMAUTILS_H_
+#define ORG_TENSORFLOW_JNI_IMAGEUTILS_LUMAUTILS_H_
+
+#include <stdint.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+// Returns the variance of the 4-neighbour Laplacian of the Y plane, sampled
+// on every |step|-th row. Higher values mean a sharper image. Border pixels
+// are skipped.
+float ComputeLaplacianVariance(const uint8_t* const yData, const int width,
+                               const int height, const int y_row_stride,
+                               const int step);
+
+// Returns the mean of the Y plane, sampled on every |step|-th row.
+float ComputeMeanLuminance(const uint8_t* const yData, const int width,
+                           const int height, const int y_row_stride,
+                           const int step);
+
+// Box-filters the Y plane down to a packed |out_width| x |out_height|
+// thumbnail. Each output sample is the average of the source block it covers.
+void DownsampleLuma(const uint8_t* const yData, const int width,
+                    const int height, const int y_row_stride,
+                    uint8_t* const output, const int out_width,
+                    const int out_height);
+
+// Returns the mean absolute difference between two packed buffers of the
+// given length, e.g. two thumbnails produced by DownsampleLuma.
+float ComputeLumaDifference(const uint8_t* const a, const uint8_t* const b,
+                            const int length);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif  // ORG_TENSORFLOW_JNI_IMAGEUTILS_LUMAUTILS_H_
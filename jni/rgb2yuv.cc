@@ -14,86 +14,216 @@ limitations under the License.
 ==============================================================================*/
 
 // These utility functions allow for the conversion of RGB data to YUV data.
+//
+// Images are encoded one 2x2 block at a time: the four Y samples are written
+// directly and the U/V pair is computed from the block and written exactly
+// once, so the output doesn't need to be cleared first and disjoint ranges of
+// row pairs can be encoded concurrently.
 
 #include "rgb2yuv.h"
 
-static inline void WriteYUV(const int x, const int y, const int width,
-                            const int r8, const int g8, const int b8,
-                            uint8_t* const pY, uint8_t* const pUV) {
-  // Using formulas from http://msdn.microsoft.com/en-us/library/ms893078
-  *pY = ((66 * r8 + 129 * g8 + 25 * b8 + 128) >> 8) + 16;
+#include <pthread.h>
 
-  // Odd widths get rounded up so that UV blocks on the side don't get cut off.
-  const int blocks_per_row = (width + 1) / 2;
+namespace {
 
-  // 2 bytes per UV block
-  const int offset = 2 * (((y / 2) * blocks_per_row + (x / 2)));
+#ifdef __APPLE__
+const int kUOffset = 0;
+const int kVOffset = 1;
+#else
+const int kUOffset = 1;
+const int kVOffset = 0;
+#endif
 
-  // U and V are the average values of all 4 pixels in the block.
-  if (!(x & 1) && !(y & 1)) {
-    // Explicitly clear the block if this is the first pixel in it.
-    pUV[offset] = 0;
-    pUV[offset + 1] = 0;
-  }
+struct ARGB8888Pixel {
+  typedef uint32_t Type;
 
-  // V (with divide by 4 factored in)
+  static inline void Unpack(const uint32_t rgb, int* const r, int* const g,
+                            int* const b) {
 #ifdef __APPLE__
-  const int u_offset = 0;
-  const int v_offset = 1;
+    *b = (rgb >> 8) & 0xFF;
+    *g = (rgb >> 16) & 0xFF;
+    *r = (rgb >> 24) & 0xFF;
 #else
-  const int u_offset = 1;
-  const int v_offset = 0;
+    *r = (rgb >> 16) & 0xFF;
+    *g = (rgb >> 8) & 0xFF;
+    *b = rgb & 0xFF;
 #endif
-  pUV[offset + v_offset] += ((112 * r8 - 94 * g8 - 18 * b8 + 128) >> 10) + 32;
+  }
+};
+
+struct RGB565Pixel {
+  typedef uint16_t Type;
+
+  static inline void Unpack(const uint16_t rgb, int* const r, int* const g,
+                            int* const b) {
+    const int r5 = ((rgb >> 11) & 0x1F);
+    const int g6 = ((rgb >> 5) & 0x3F);
+    const int b5 = (rgb & 0x1F);
+
+    // Shift left, then fill in the empty low bits with a copy of the high
+    // bits so we can stretch across the entire 0 - 255 range.
+    *r = r5 << 3 | r5 >> 2;
+    *g = g6 << 2 | g6 >> 4;
+    *b = b5 << 3 | b5 >> 2;
+  }
+};
+
+// Writes the Y sample of one pixel and adds its contribution to the U and V
+// sums of its block. Using formulas from
+// http://msdn.microsoft.com/en-us/library/ms893078 with the divide by 4 for
+// the chroma average factored into each pixel's term.
+template <typename Pixel>
+static inline void EncodePixel(const typename Pixel::Type rgb,
+                               uint8_t* const pY, int* const u, int* const v) {
+  int r8, g8, b8;
+  Pixel::Unpack(rgb, &r8, &g8, &b8);
+  *pY = ((66 * r8 + 129 * g8 + 25 * b8 + 128) >> 8) + 16;
+  *v += ((112 * r8 - 94 * g8 - 18 * b8 + 128) >> 10) + 32;
+  *u += ((-38 * r8 - 74 * g8 + 112 * b8 + 128) >> 10) + 32;
+}
 
-  // U (with divide by 4 factored in)
-  pUV[offset + u_offset] += ((-38 * r8 - 74 * g8 + 112 * b8 + 128) >> 10) + 32;
+// Encodes row pairs [first_pair, last_pair) of the image. A trailing odd row
+// or column forms a partial block which only sums the pixels it contains.
+template <typename Pixel>
+void EncodeRowPairs(const typename Pixel::Type* const input,
+                    uint8_t* const output, const int width, const int height,
+                    const int first_pair, const int last_pair) {
+  // Odd widths get rounded up so that UV blocks on the side don't get cut off.
+  const int uv_row_bytes = 2 * ((width + 1) / 2);
+  const int even_width = width & ~1;
+
+  for (int pair = first_pair; pair < last_pair; ++pair) {
+    const int y = 2 * pair;
+    const typename Pixel::Type* const in0 = input + y * width;
+    uint8_t* const pY0 = output + y * width;
+    uint8_t* pUV = output + width * height + pair * uv_row_bytes;
+
+    if (y + 1 < height) {
+      const typename Pixel::Type* const in1 = in0 + width;
+      uint8_t* const pY1 = pY0 + width;
+      for (int x = 0; x < even_width; x += 2) {
+        int u = 0;
+        int v = 0;
+        EncodePixel<Pixel>(in0[x], pY0 + x, &u, &v);
+        EncodePixel<Pixel>(in0[x + 1], pY0 + x + 1, &u, &v);
+        EncodePixel<Pixel>(in1[x], pY1 + x, &u, &v);
+        EncodePixel<Pixel>(in1[x + 1], pY1 + x + 1, &u, &v);
+        pUV[kUOffset] = u;
+        pUV[kVOffset] = v;
+        pUV += 2;
+      }
+      if (even_width != width) {
+        int u = 0;
+        int v = 0;
+        EncodePixel<Pixel>(in0[even_width], pY0 + even_width, &u, &v);
+        EncodePixel<Pixel>(in1[even_width], pY1 + even_width, &u, &v);
+        pUV[kUOffset] = u;
+        pUV[kVOffset] = v;
+      }
+    } else {
+      for (int x = 0; x < even_width; x += 2) {
+        int u = 0;
+        int v = 0;
+        EncodePixel<Pixel>(in0[x], pY0 + x, &u, &v);
+        EncodePixel<Pixel>(in0[x + 1], pY0 + x + 1, &u, &v);
+        pUV[kUOffset] = u;
+        pUV[kVOffset] = v;
+        pUV += 2;
+      }
+      if (even_width != width) {
+        int u = 0;
+        int v = 0;
+        EncodePixel<Pixel>(in0[even_width], pY0 + even_width, &u, &v);
+        pUV[kUOffset] = u;
+        pUV[kVOffset] = v;
+      }
+    }
+  }
 }
 
-void ConvertARGB8888ToYUV420SP(const uint32_t* const input,
-                               uint8_t* const output, int width, int height) {
-  uint8_t* pY = output;
-  uint8_t* pUV = output + (width * height);
-  const uint32_t* in = input;
+template <typename Pixel>
+struct EncodeTask {
+  const typename Pixel::Type* input;
+  uint8_t* output;
+  int width;
+  int height;
+  int first_pair;
+  int last_pair;
+
+  static void* Run(void* arg) {
+    const EncodeTask* const task = static_cast<const EncodeTask*>(arg);
+    EncodeRowPairs<Pixel>(task->input, task->output, task->width,
+                          task->height, task->first_pair, task->last_pair);
+    return NULL;
+  }
+};
+
+// Splits the row pairs into num_threads contiguous bands. The calling thread
+// encodes the first band itself, and falls back to encoding any band whose
+// worker thread couldn't be started.
+template <typename Pixel>
+void EncodeThreaded(const typename Pixel::Type* const input,
+                    uint8_t* const output, const int width, const int height,
+                    int num_threads) {
+  static const int kMaxThreads = 8;
+  const int num_pairs = (height + 1) / 2;
+  if (num_threads > kMaxThreads) num_threads = kMaxThreads;
+  if (num_threads > num_pairs) num_threads = num_pairs;
+  if (num_threads <= 1) {
+    EncodeRowPairs<Pixel>(input, output, width, height, 0, num_pairs);
+    return;
+  }
 
-  for (int y = 0; y < height; y++) {
-    for (int x = 0; x < width; x++) {
-      const uint32_t rgb = *in++;
-#ifdef __APPLE__
-      const int nB = (rgb >> 8) & 0xFF;
-      const int nG = (rgb >> 16) & 0xFF;
-      const int nR = (rgb >> 24) & 0xFF;
-#else
-      const int nR = (rgb >> 16) & 0xFF;
-      const int nG = (rgb >> 8) & 0xFF;
-      const int nB = rgb & 0xFF;
-#endif
-      WriteYUV(x, y, width, nR, nG, nB, pY++, pUV);
+  EncodeTask<Pixel> tasks[kMaxThreads];
+  pthread_t threads[kMaxThreads];
+  bool started[kMaxThreads];
+  for (int i = 0; i < num_threads; ++i) {
+    tasks[i].input = input;
+    tasks[i].output = output;
+    tasks[i].width = width;
+    tasks[i].height = height;
+    tasks[i].first_pair = num_pairs * i / num_threads;
+    tasks[i].last_pair = num_pairs * (i + 1) / num_threads;
+    started[i] = false;
+  }
+
+  for (int i = 1; i < num_threads; ++i) {
+    started[i] = pthread_create(&threads[i], NULL, &EncodeTask<Pixel>::Run,
+                                &tasks[i]) == 0;
+  }
+  EncodeTask<Pixel>::Run(&tasks[0]);
+  for (int i = 1; i < num_threads; ++i) {
+    if (started[i]) {
+      pthread_join(threads[i], NULL);
+    } else {
+      EncodeTask<Pixel>::Run(&tasks[i]);
     }
   }
 }
 
-void ConvertRGB565ToYUV420SP(const uint16_t* const input, uint8_t* const output,
-                             const int width, const int height) {
-  uint8_t* pY = output;
-  uint8_t* pUV = output + (width * height);
-  const uint16_t* in = input;
+}  // namespace
 
-  for (int y = 0; y < height; y++) {
-    for (int x = 0; x < width; x++) {
-      const uint32_t rgb = *in++;
+void ConvertARGB8888ToYUV420SP(const uint32_t* const input,
+                               uint8_t* const output, int width, int height) {
+  EncodeRowPairs<ARGB8888Pixel>(input, output, width, height, 0,
+                                (height + 1) / 2);
+}
 
-      const int r5 = ((rgb >> 11) & 0x1F);
-      const int g6 = ((rgb >> 5) & 0x3F);
-      const int b5 = (rgb & 0x1F);
+void ConvertRGB565ToYUV420SP(const uint16_t* const input, uint8_t* const output,
+                             const int width, const int height) {
+  EncodeRowPairs<RGB565Pixel>(input, output, width, height, 0,
+                              (height + 1) / 2);
+}
 
-      // Shift left, then fill in the empty low bits with a copy of the high
-      // bits so we can stretch across the entire 0 - 255 range.
-      const int r8 = r5 << 3 | r5 >> 2;
-      const int g8 = g6 << 2 | g6 >> 4;
-      const int b8 = b5 << 3 | b5 >> 2;
+void ConvertARGB8888ToYUV420SPThreaded(const uint32_t* const input,
+                                       uint8_t* const output, const int width,
+                                       const int height,
+                                       const int num_threads) {
+  EncodeThreaded<ARGB8888Pixel>(input, output, width, height, num_threads);
+}
 
-      WriteYUV(x, y, width, r8, g8, b8, pY++, pUV);
-    }
-  }
+void ConvertRGB565ToYUV420SPThreaded(const uint16_t* const input,
+                                     uint8_t* const output, const int width,
+                                     const int height, const int num_threads) {
+  EncodeThreaded<RGB565Pixel>(input, output, width, height, num_threads);
 }
@@ -28,6 +28,17 @@ void ConvertARGB8888ToYUV420SP(const uint32_t* const input,
 void ConvertRGB565ToYUV420SP(const uint16_t* const input, uint8_t* const output,
                              const int width, const int height);
 
+// The same as the single-threaded versions, but splits the image into bands
+// of row pairs encoded on up to num_threads threads. The output is identical.
+void ConvertARGB8888ToYUV420SPThreaded(const uint32_t* const input,
+                                       uint8_t* const output, const int width,
+                                       const int height,
+                                       const int num_threads);
+
+void ConvertRGB565ToYUV420SPThreaded(const uint16_t* const input,
+                                     uint8_t* const output, const int width,
+                                     const int height, const int num_threads);
+
 #ifdef __cplusplus
 }
 #endif
@@ -18,6 +18,21 @@ limitations under the License.
 
 #include "yuv2rgb.h"
 
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#define IMAGEUTILS_HAVE_NEON 1
+#include <arm_neon.h>
+#elif defined(IMAGEUTILS_REQUIRE_NEON)
+// Set by "make -C host neon-check", so a target without NEON can't pass it.
+#error "NEON is not enabled for this target"
+#endif
+
+#if defined(__arm__) && defined(IMAGEUTILS_HAVE_NEON)
+#include <sys/auxv.h>
+#ifndef HWCAP_NEON
+#define HWCAP_NEON (1 << 12)
+#endif
+#endif
+
 #ifndef MAX
 #define MAX(a, b) ({__typeof__(a) _a = (a); __typeof__(b) _b = (b); _a > _b ? _a : _b; })
 #define MIN(a, b) ({__typeof__(a) _a = (a); __typeof__(b) _b = (b); _a < _b ? _a : _b; })
@@ -58,12 +73,13 @@ static inline uint32_t YUV2RGB(int nY, int nU, int nV) {
 //  separate u and v planes with arbitrary row and column strides,
 //  containing 8 bit 2x2 subsampled chroma samples.
 //  Converts to a packed ARGB 32 bit output of the same pixel dimensions.
-void ConvertYUV420ToARGB8888(const uint8_t* const yData,
-                             const uint8_t* const uData,
-                             const uint8_t* const vData, uint32_t* const output,
-                             const int width, const int height,
-                             const int y_row_stride, const int uv_row_stride,
-                             const int uv_pixel_stride) {
+void ConvertYUV420ToARGB8888Generic(const uint8_t* const yData,
+                                    const uint8_t* const uData,
+                                    const uint8_t* const vData,
+                                    uint32_t* const output, const int width,
+                                    const int height, const int y_row_stride,
+                                    const int uv_row_stride,
+                                    const int uv_pixel_stride) {
   uint32_t* out = output;
 
   for (int y = 0; y < height; y++) {
@@ -80,6 +96,156 @@ void ConvertYUV420ToARGB8888(const uint8_t* const yData,
   }
 }
 
+#ifdef IMAGEUTILS_HAVE_NEON
+
+// Clamps eight 32 bit channel values to [0, kMaxChannelValue] and normalizes
+// them to eight bits, exactly as YUV2RGB does.
+static inline uint8x8_t ClampChannelNeon(int32x4_t lo, int32x4_t hi) {
+  const int32x4_t zero = vdupq_n_s32(0);
+  const int32x4_t max = vdupq_n_s32(kMaxChannelValue);
+  lo = vshrq_n_s32(vminq_s32(vmaxq_s32(lo, zero), max), 10);
+  hi = vshrq_n_s32(vminq_s32(vmaxq_s32(hi, zero), max), 10);
+  return vqmovun_s16(vcombine_s16(vmovn_s32(lo), vmovn_s32(hi)));
+}
+
+// Converts eight pixels, given their luma and per-pixel (already duplicated)
+// chroma samples, and stores them as ARGB 8888. Bit-exact with YUV2RGB.
+static inline void YUV2RGBNeon(const uint8x8_t y8, const uint8x8_t u8,
+                               const uint8x8_t v8, uint32_t* const out) {
+  int16x8_t y = vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(y8)), vdupq_n_s16(16));
+  y = vmaxq_s16(y, vdupq_n_s16(0));
+  const int16x8_t u =
+      vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(u8)), vdupq_n_s16(128));
+  const int16x8_t v =
+      vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(v8)), vdupq_n_s16(128));
+
+  const int32x4_t y_lo = vmull_n_s16(vget_low_s16(y), 1192);
+  const int32x4_t y_hi = vmull_n_s16(vget_high_s16(y), 1192);
+
+  const int32x4_t r_lo = vmlal_n_s16(y_lo, vget_low_s16(v), 1634);
+  const int32x4_t r_hi = vmlal_n_s16(y_hi, vget_high_s16(v), 1634);
+  const int32x4_t g_lo = vmlsl_n_s16(vmlsl_n_s16(y_lo, vget_low_s16(v), 833),
+                                     vget_low_s16(u), 400);
+  const int32x4_t g_hi = vmlsl_n_s16(vmlsl_n_s16(y_hi, vget_high_s16(v), 833),
+                                     vget_high_s16(u), 400);
+  const int32x4_t b_lo = vmlal_n_s16(y_lo, vget_low_s16(u), 2066);
+  const int32x4_t b_hi = vmlal_n_s16(y_hi, vget_high_s16(u), 2066);
+
+  // 0xAARRGGBB in little-endian memory order is B, G, R, A.
+  uint8x8x4_t argb;
+  argb.val[0] = ClampChannelNeon(b_lo, b_hi);
+  argb.val[1] = ClampChannelNeon(g_lo, g_hi);
+  argb.val[2] = ClampChannelNeon(r_lo, r_hi);
+  argb.val[3] = vdup_n_u8(0xff);
+  vst4_u8(reinterpret_cast<uint8_t*>(out), argb);
+}
+
+//  The same as ConvertYUV420ToARGB8888Generic, but converts 16 pixels at a
+//  time with NEON when the chroma planes are planar (pixel stride 1) or
+//  semi-planar (pixel stride 2), which covers the YUV_420_888 layouts
+//  produced by camera HALs. The vector loops stop early enough that they never
+//  read past the last chroma sample the scalar code would read.
+void ConvertYUV420ToARGB8888Neon(const uint8_t* const yData,
+                                 const uint8_t* const uData,
+                                 const uint8_t* const vData,
+                                 uint32_t* const output, const int width,
+                                 const int height, const int y_row_stride,
+                                 const int uv_row_stride,
+                                 const int uv_pixel_stride) {
+  if (uv_pixel_stride != 1 && uv_pixel_stride != 2) {
+    ConvertYUV420ToARGB8888Generic(yData, uData, vData, output, width, height,
+                                   y_row_stride, uv_row_stride,
+                                   uv_pixel_stride);
+    return;
+  }
+
+  for (int y = 0; y < height; y++) {
+    const uint8_t* pY = yData + y_row_stride * y;
+
+    const int uv_row_start = uv_row_stride * (y >> 1);
+    const uint8_t* pU = uData + uv_row_start;
+    const uint8_t* pV = vData + uv_row_start;
+    uint32_t* const out = output + y * width;
+
+    int x = 0;
+    if (uv_pixel_stride == 2) {
+      for (; x + 16 < width; x += 16) {
+        const uint8x16_t y16 = vld1q_u8(pY + x);
+        const uint8x8_t u = vld2_u8(pU + x).val[0];
+        const uint8x8_t v = vld2_u8(pV + x).val[0];
+        const uint8x8x2_t uu = vzip_u8(u, u);
+        const uint8x8x2_t vv = vzip_u8(v, v);
+        YUV2RGBNeon(vget_low_u8(y16), uu.val[0], vv.val[0], out + x);
+        YUV2RGBNeon(vget_high_u8(y16), uu.val[1], vv.val[1], out + x + 8);
+      }
+    } else {
+      for (; x + 16 <= width; x += 16) {
+        const uint8x16_t y16 = vld1q_u8(pY + x);
+        const uint8x8_t u = vld1_u8(pU + (x >> 1));
+        const uint8x8_t v = vld1_u8(pV + (x >> 1));
+        const uint8x8x2_t uu = vzip_u8(u, u);
+        const uint8x8x2_t vv = vzip_u8(v, v);
+        YUV2RGBNeon(vget_low_u8(y16), uu.val[0], vv.val[0], out + x);
+        YUV2RGBNeon(vget_high_u8(y16), uu.val[1], vv.val[1], out + x + 8);
+      }
+    }
+
+    for (; x < width; x++) {
+      const int uv_offset = (x >> 1) * uv_pixel_stride;
+      out[x] = YUV2RGB(pY[x], pU[uv_offset], pV[uv_offset]);
+    }
+  }
+}
+
+#endif  // IMAGEUTILS_HAVE_NEON
+
+typedef void (*YUV420ToARGB8888Kernel)(
+    const uint8_t* const yData, const uint8_t* const uData,
+    const uint8_t* const vData, uint32_t* const output, const int width,
+    const int height, const int y_row_stride, const int uv_row_stride,
+    const int uv_pixel_stride);
+
+static YUV420ToARGB8888Kernel yuv420_to_argb8888_kernel =
+    &ConvertYUV420ToARGB8888Generic;
+static const char* kernel_variant = "generic";
+
+const char* SelectImageUtilKernels() {
+#if defined(__aarch64__) && defined(IMAGEUTILS_HAVE_NEON)
+  // Advanced SIMD is mandatory on AArch64.
+  yuv420_to_argb8888_kernel = &ConvertYUV420ToARGB8888Neon;
+  kernel_variant = "arm64-v8a neon";
+#elif defined(__arm__) && defined(IMAGEUTILS_HAVE_NEON)
+  // NEON is optional on ARMv7, so ask the kernel before using it.
+  if (getauxval(AT_HWCAP) & HWCAP_NEON) {
+    yuv420_to_argb8888_kernel = &ConvertYUV420ToARGB8888Neon;
+    kernel_variant = "armeabi-v7a neon";
+  } else {
+    yuv420_to_argb8888_kernel = &ConvertYUV420ToARGB8888Generic;
+    kernel_variant = "armeabi-v7a generic";
+  }
+#elif defined(__x86_64__)
+  // SSE2 is baseline on x86-64 and the generic kernels auto-vectorize to it.
+  yuv420_to_argb8888_kernel = &ConvertYUV420ToARGB8888Generic;
+  kernel_variant = "x86_64 generic";
+#endif
+  return kernel_variant;
+}
+
+//  Accepts a YUV 4:2:0 image with a plane of 8 bit Y samples followed by
+//  separate u and v planes with arbitrary row and column strides,
+//  containing 8 bit 2x2 subsampled chroma samples.
+//  Converts to a packed ARGB 32 bit output of the same pixel dimensions,
+//  using the kernel chosen by SelectImageUtilKernels().
+void ConvertYUV420ToARGB8888(const uint8_t* const yData,
+                             const uint8_t* const uData,
+                             const uint8_t* const vData, uint32_t* const output,
+                             const int width, const int height,
+                             const int y_row_stride, const int uv_row_stride,
+                             const int uv_pixel_stride) {
+  yuv420_to_argb8888_kernel(yData, uData, vData, output, width, height,
+                            y_row_stride, uv_row_stride, uv_pixel_stride);
+}
+
 //  Accepts a YUV 4:2:0 image with a plane of 8 bit Y samples followed by an
 //  interleaved U/V plane containing 8 bit 2x2 subsampled chroma samples,
 //  except the interleave order of U and V is reversed. Converts to a packed
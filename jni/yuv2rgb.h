@@ -25,6 +25,12 @@ limitations under the License.
 extern "C" {
 #endif
 
+// Chooses the fastest implementation of the dispatched kernels below for the
+// ABI and CPU the library is running on, and returns a short description of
+// the choice. Until this is called the portable kernels are used.
+const char* SelectImageUtilKernels();
+
+// Dispatches to the kernel chosen by SelectImageUtilKernels().
 void ConvertYUV420ToARGB8888(const uint8_t* const yData,
                              const uint8_t* const uData,
                              const uint8_t* const vData, uint32_t* const output,
@@ -32,6 +38,27 @@ void ConvertYUV420ToARGB8888(const uint8_t* const yData,
                              const int y_row_stride, const int uv_row_stride,
                              const int uv_pixel_stride);
 
+// The portable implementation of ConvertYUV420ToARGB8888.
+void ConvertYUV420ToARGB8888Generic(const uint8_t* const yData,
+                                    const uint8_t* const uData,
+                                    const uint8_t* const vData,
+                                    uint32_t* const output, const int width,
+                                    const int height, const int y_row_stride,
+                                    const int uv_row_stride,
+                                    const int uv_pixel_stride);
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+// NEON implementation of ConvertYUV420ToARGB8888 for uv pixel strides of 1
+// and 2. Other strides fall back to the portable implementation.
+void ConvertYUV420ToARGB8888Neon(const uint8_t* const yData,
+                                 const uint8_t* const uData,
+                                 const uint8_t* const vData,
+                                 uint32_t* const output, const int width,
+                                 const int height, const int y_row_stride,
+                                 const int uv_row_stride,
+                                 const int uv_pixel_stride);
+#endif
+
 // Converts YUV420 semi-planar data to ARGB 8888 data using the supplied width
 // and height. The input and output must already be allocated and non-null.
 // For efficiency, no error checking is performed.
@@ -18,14 +18,12 @@ package org.tensorflow.demo;
 
 import android.Manifest;
 import android.app.Activity;
-import android.app.Fragment;
 import android.content.pm.PackageManager;
 import android.media.Image.Plane;
 import android.media.ImageReader.OnImageAvailableListener;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
+import android.util.Range;
 import android.util.Size;
 import android.view.KeyEvent;
 import android.view.View;
@@ -37,6 +35,8 @@ import android.content.Intent;
 import java.nio.ByteBuffer;
 
 import org.snpeflow.demo.R;
+import org.tensorflow.demo.env.FramePool;
+import org.tensorflow.demo.env.InferenceScheduler;
 import org.tensorflow.demo.env.Logger;
 
 public abstract class CameraActivity extends Activity implements OnImageAvailableListener {
@@ -47,10 +47,19 @@ public abstract class CameraActivity extends Activity implements OnImageAvailabl
     private static final String PERMISSION_CAMERA = Manifest.permission.CAMERA;
     private static final String PERMISSION_STORAGE = Manifest.permission.WRITE_EXTERNAL_STORAGE;
 
+    private static final int DEFAULT_IMAGE_READER_DEPTH = 2;
+
+    // At most FRAME_LANE_CAPACITY frames wait for the inference thread, and none for longer than
+    // MAX_FRAME_WAIT_MS; anything older is stale by the time it would run.
+    private static final int FRAME_LANE_CAPACITY = 2;
+    private static final long MAX_FRAME_WAIT_MS = 500;
+
     private boolean debug = false;
 
-    private Handler handler;
-    private HandlerThread handlerThread;
+    private CameraConnectionFragment cameraFragment;
+
+    private final InferenceScheduler scheduler =
+            new InferenceScheduler("inference", FRAME_LANE_CAPACITY, MAX_FRAME_WAIT_MS);
 
     @Override
     protected void onCreate(final Bundle savedInstanceState) {
@@ -77,9 +86,7 @@ public abstract class CameraActivity extends Activity implements OnImageAvailabl
         LOGGER.d("onResume " + this);
         super.onResume();
 
-        handlerThread = new HandlerThread("inference");
-        handlerThread.start();
-        handler = new Handler(handlerThread.getLooper());
+        scheduler.start();
     }
 
     @Override
@@ -91,14 +98,8 @@ public abstract class CameraActivity extends Activity implements OnImageAvailabl
             finish();
         }
 
-        handlerThread.quitSafely();
-        try {
-            handlerThread.join();
-            handlerThread = null;
-            handler = null;
-        } catch (final InterruptedException e) {
-            LOGGER.e(e, "Exception!");
-        }
+        // Runs the cleanup queued by subclasses, but none of the pending frames.
+        scheduler.stop();
 
         super.onPause();
     }
@@ -115,10 +116,24 @@ public abstract class CameraActivity extends Activity implements OnImageAvailabl
         super.onDestroy();
     }
 
-    protected synchronized void runInBackground(final Runnable r) {
-        if (handler != null) {
-            handler.post(r);
-        }
+    /**
+     * Runs r on the inference thread ahead of any waiting frames. For work that must not be
+     * dropped, such as loading or closing a model.
+     */
+    protected InferenceScheduler.Ticket runInBackground(final Runnable r) {
+        return scheduler.runControl(r);
+    }
+
+    /**
+     * Runs r on the inference thread once earlier work is done, unless it is cancelled, displaced
+     * by newer frames or goes stale first.
+     */
+    protected InferenceScheduler.Ticket runFrameInBackground(final Runnable r) {
+        return scheduler.runFrame(r);
+    }
+
+    protected InferenceScheduler getScheduler() {
+        return scheduler;
     }
 
     @Override
@@ -155,7 +170,7 @@ public abstract class CameraActivity extends Activity implements OnImageAvailabl
     }
 
     protected void setFragment() {
-        final Fragment fragment =
+        cameraFragment =
                 CameraConnectionFragment.newInstance(
                         new CameraConnectionFragment.ConnectionCallback() {
                             @Override
@@ -165,11 +180,14 @@ public abstract class CameraActivity extends Activity implements OnImageAvailabl
                         },
                         this,
                         getLayoutId(),
-                        getDesiredPreviewFrameSize());
+                        getDesiredPreviewFrameSize(),
+                        getImageReaderDepth(),
+                        getDesiredFpsRange(),
+                        getStillImageListener());
 
         getFragmentManager()
                 .beginTransaction()
-                .replace(R.id.container, fragment)
+                .replace(R.id.container, cameraFragment)
                 .commit();
     }
 
@@ -186,6 +204,33 @@ public abstract class CameraActivity extends Activity implements OnImageAvailabl
         }
     }
 
+    protected void fillFrames(final Plane[] planes, final FramePool.Frame[] yuvFrames) {
+        // Plane sizes only change with the preview size, so after the first frame this
+        // reuses the same pooled buffers and allocates nothing.
+        for (int i = 0; i < planes.length; ++i) {
+            final ByteBuffer buffer = planes[i].getBuffer();
+            if (yuvFrames[i] == null || yuvFrames[i].capacity() != buffer.capacity()) {
+                if (yuvFrames[i] != null) {
+                    yuvFrames[i].release();
+                }
+                LOGGER.d("Acquiring pooled buffer %d at size %d", i, buffer.capacity());
+                yuvFrames[i] = FramePool.getDefault().acquire(buffer.capacity());
+            }
+            final ByteBuffer frame = yuvFrames[i].getBuffer();
+            frame.clear();
+            frame.put(buffer);
+        }
+    }
+
+    protected void releaseFrames(final FramePool.Frame[] frames) {
+        for (int i = 0; i < frames.length; ++i) {
+            if (frames[i] != null) {
+                frames[i].release();
+                frames[i] = null;
+            }
+        }
+    }
+
     public boolean isDebug() {
         return debug;
     }
@@ -223,4 +268,33 @@ public abstract class CameraActivity extends Activity implements OnImageAvailabl
     protected abstract int getLayoutId();
 
     protected abstract Size getDesiredPreviewFrameSize();
+
+    /**
+     * Returns how many preview images the camera may queue for {@link #onImageAvailable}.
+     * Deeper queues smooth out stalls in the listener at the cost of memory and latency.
+     */
+    protected int getImageReaderDepth() {
+        return DEFAULT_IMAGE_READER_DEPTH;
+    }
+
+    /**
+     * Returns the bounds for the camera capture rate, or null to use the camera's default. The
+     * rate starts at the fastest supported range within the bounds and can be lowered with
+     * {@link CameraConnectionFragment#stepFrameRateDown()}.
+     */
+    protected Range<Integer> getDesiredFpsRange() {
+        return null;
+    }
+
+    /**
+     * Returns the listener for full-resolution stills requested with
+     * {@link CameraConnectionFragment#captureStill()}, or null to not configure a still stream.
+     */
+    protected OnImageAvailableListener getStillImageListener() {
+        return null;
+    }
+
+    protected CameraConnectionFragment getCameraFragment() {
+        return cameraFragment;
+    }
 }
@@ -18,6 +18,7 @@ import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
@@ -29,6 +30,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.util.SparseIntArray;
 import android.view.GestureDetector;
@@ -62,6 +64,35 @@ public class CameraConnectionFragment extends Fragment {
      */
     private static final int MINIMUM_PREVIEW_SIZE = 320;
 
+    /**
+     * The display stream is never larger than this, whatever the size of the view, to stay
+     * within the camera bus' bandwidth alongside the analysis stream.
+     */
+    private static final Size MAXIMUM_DISPLAY_SIZE = new Size(1920, 1080);
+
+    /**
+     * Sizes whose aspect ratios differ by less than this are treated as the same shape.
+     */
+    private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
+
+    /**
+     * A gap between two consecutive sensor timestamps longer than this many average frame
+     * intervals is counted as frames the sensor dropped.
+     */
+    private static final float DROPPED_FRAME_GAP = 1.5f;
+
+    /**
+     * Weight of each new frame interval in the moving average.
+     */
+    private static final float FRAME_INTERVAL_SMOOTHING = 0.1f;
+
+    /**
+     * This many gaps in a row mean the frame rate itself went down, e.g. because auto-exposure
+     * lengthened the frames, rather than frames being dropped. The average restarts from the new
+     * interval and the gaps aren't counted.
+     */
+    private static final int RATE_CHANGE_GAPS = 3;
+
     /**
      * Conversion from screen rotation to JPEG orientation.
      */
@@ -137,10 +168,16 @@ public class CameraConnectionFragment extends Fragment {
     private Integer sensorOrientation;
 
     /**
-     * The {@link android.util.Size} of camera preview.
+     * The {@link android.util.Size} of camera preview shown in {@link #textureView}.
      */
     private Size previewSize;
 
+    /**
+     * The {@link android.util.Size} of the frames delivered to {@link #imageListener}. Independent
+     * of {@link #previewSize}, but with the same aspect ratio so both show the same field of view.
+     */
+    private Size analysisSize;
+
     /**
      * {@link android.hardware.camera2.CameraDevice.StateCallback}
      * is called when {@link CameraDevice} changes its state.
@@ -189,6 +226,17 @@ public class CameraConnectionFragment extends Fragment {
      */
     private ImageReader previewReader;
 
+    /**
+     * An {@link ImageReader} that receives full-resolution JPEG stills, or null if the listener
+     * didn't ask for them. Created on the background thread, read from the UI thread.
+     */
+    private volatile ImageReader stillReader;
+
+    /**
+     * The {@link android.util.Size} of still captures: the largest JPEG size the camera offers.
+     */
+    private Size stillSize;
+
     /**
      * {@link android.hardware.camera2.CaptureRequest.Builder} for the camera preview
      */
@@ -210,7 +258,14 @@ public class CameraConnectionFragment extends Fragment {
     private final OnImageAvailableListener imageListener;
 
     /**
-     * The input size in pixels desired by TensorFlow (width and height of a square bitmap).
+     * A {@link OnImageAvailableListener} to receive JPEG stills from {@link #captureStill()}, or
+     * null to not configure a still stream.
+     */
+    private final OnImageAvailableListener stillListener;
+
+    /**
+     * The input size in pixels desired by TensorFlow (width and height of a square bitmap). The
+     * analysis stream is the smallest supported size that covers it.
      */
     private final Size inputSize;
 
@@ -221,15 +276,60 @@ public class CameraConnectionFragment extends Fragment {
 
     private final ConnectionCallback cameraConnectionCallback;
 
+    /**
+     * The maximum number of images the preview {@link ImageReader} can hold at once.
+     */
+    private final int readerDepth;
+
+    /**
+     * The requested bounds for the capture rate, or null for the camera's default.
+     */
+    private final Range<Integer> desiredFpsRange;
+
+    /**
+     * The supported AE target fps ranges within {@link #desiredFpsRange}, one per upper bound,
+     * slowest first. The capture rate steps through these as the consumer falls behind or
+     * catches up, and drops to the slowest while no frames are wanted. The list is immutable and
+     * replaced as a whole on the UI thread when the camera is set up; the index then only moves
+     * on the background thread. Both are read from any thread by {@link #getStatString}.
+     */
+    private volatile List<Range<Integer>> fpsRanges = Collections.emptyList();
+    private volatile int fpsRangeIndex = -1;
+    // Whether the camera runs at the slowest range because no frames are wanted. fpsRangeIndex
+    // keeps the rate to go back to. Written on the background thread only.
+    private volatile boolean framesIdle = false;
+
+    // Capture statistics, written on the background thread.
+    private volatile long framesCaptured;
+    private volatile long framesFailed;
+    private volatile long framesDropped;
+    private volatile float averageFrameIntervalMs;
+    private long lastSensorTimestampNs = -1;
+    // The fps range of the last capture result, and the drops counted from consecutive gaps that
+    // aren't yet known not to be a rate change.
+    private Range<Integer> lastResultFpsRange;
+    private int consecutiveGaps;
+    private long pendingDrops;
+
     private CameraConnectionFragment(
             final ConnectionCallback connectionCallback,
             final OnImageAvailableListener imageListener,
             final int layout,
-            final Size inputSize) {
+            final Size inputSize,
+            final int readerDepth,
+            final Range<Integer> desiredFpsRange,
+            final OnImageAvailableListener stillListener) {
+        if (readerDepth < 2) {
+            // acquireLatestImage() needs room for one more image than the caller holds.
+            throw new IllegalArgumentException("ImageReader depth must be at least 2: " + readerDepth);
+        }
         this.cameraConnectionCallback = connectionCallback;
         this.imageListener = imageListener;
         this.layout = layout;
         this.inputSize = inputSize;
+        this.readerDepth = readerDepth;
+        this.desiredFpsRange = desiredFpsRange;
+        this.stillListener = stillListener;
     }
 
     /**
@@ -300,12 +400,73 @@ public class CameraConnectionFragment extends Fragment {
         }
     }
 
+    /**
+     * Chooses the size for the on-screen preview: the smallest choice that covers the view in
+     * both dimensions, or the largest choice if none does, ignoring anything above
+     * {@link #MAXIMUM_DISPLAY_SIZE}.
+     *
+     * @param choices    The sizes to choose from
+     * @param viewWidth  The width of the view the preview is shown in
+     * @param viewHeight The height of the view the preview is shown in
+     * @return The chosen size, or the first choice if all are too large
+     */
+    private static Size chooseDisplaySize(final Size[] choices, final int viewWidth, final int viewHeight) {
+        final int viewLong = Math.max(viewWidth, viewHeight);
+        final int viewShort = Math.min(viewWidth, viewHeight);
+        final CompareSizesByArea byArea = new CompareSizesByArea();
+
+        Size smallestCovering = null;
+        Size largest = null;
+        for (final Size option : choices) {
+            final int optionLong = Math.max(option.getWidth(), option.getHeight());
+            final int optionShort = Math.min(option.getWidth(), option.getHeight());
+            if (optionLong > MAXIMUM_DISPLAY_SIZE.getWidth()
+                    || optionShort > MAXIMUM_DISPLAY_SIZE.getHeight()) {
+                continue;
+            }
+            if (largest == null || byArea.compare(option, largest) > 0) {
+                largest = option;
+            }
+            if (optionLong >= viewLong && optionShort >= viewShort
+                    && (smallestCovering == null || byArea.compare(option, smallestCovering) < 0)) {
+                smallestCovering = option;
+            }
+        }
+        if (smallestCovering != null) {
+            return smallestCovering;
+        }
+        return largest != null ? largest : choices[0];
+    }
+
+    /**
+     * Returns the choices with the same aspect ratio as {@code shape}, or all of them if none has.
+     */
+    private static Size[] filterByAspectRatio(final Size[] choices, final Size shape) {
+        final List<Size> matching = new ArrayList<Size>();
+        for (final Size option : choices) {
+            if (sameAspectRatio(option, shape)) {
+                matching.add(option);
+            }
+        }
+        return matching.isEmpty() ? choices : matching.toArray(new Size[matching.size()]);
+    }
+
+    private static boolean sameAspectRatio(final Size a, final Size b) {
+        final float ratioA = (float) a.getWidth() / a.getHeight();
+        final float ratioB = (float) b.getWidth() / b.getHeight();
+        return Math.abs(ratioA - ratioB) < ASPECT_RATIO_TOLERANCE * ratioB;
+    }
+
     public static CameraConnectionFragment newInstance(
             final ConnectionCallback callback,
             final OnImageAvailableListener imageListener,
             final int layout,
-            final Size inputSize) {
-        return new CameraConnectionFragment(callback, imageListener, layout, inputSize);
+            final Size inputSize,
+            final int readerDepth,
+            final Range<Integer> desiredFpsRange,
+            final OnImageAvailableListener stillListener) {
+        return new CameraConnectionFragment(
+                callback, imageListener, layout, inputSize, readerDepth, desiredFpsRange, stillListener);
     }
 
     @Override
@@ -325,6 +486,14 @@ public class CameraConnectionFragment extends Fragment {
                 activity.buttonPress();
             }
         });
+        takeStillPhoto.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                ClassifierActivity activity = (ClassifierActivity) getActivity();
+                activity.toggleContinuousScan();
+                return true;
+            }
+        });
 
         Button btn = (Button) view.findViewById(R.id.done_btn);
         btn.setOnClickListener(new View.OnClickListener() {
@@ -401,14 +570,34 @@ public class CameraConnectionFragment extends Fragment {
 
                 sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
 
+                // Analysis frames only need to be big enough for the classifier input, so use
+                // the smallest YUV size that covers it, preferably with the sensor's full field of
+                // view.
+                analysisSize =
+                        chooseOptimalSize(
+                                filterByAspectRatio(map.getOutputSizes(ImageFormat.YUV_420_888), largest),
+                                inputSize.getWidth(),
+                                inputSize.getHeight());
+
                 // Danger, W.R.! Attempting to use too large a preview size could  exceed the camera
                 // bus' bandwidth limitation, resulting in gorgeous previews but the storage of
                 // garbage capture data.
                 previewSize =
-                        chooseOptimalSize(
-                                map.getOutputSizes(SurfaceTexture.class),
-                                inputSize.getWidth(),
-                                inputSize.getHeight());
+                        chooseDisplaySize(
+                                filterByAspectRatio(map.getOutputSizes(SurfaceTexture.class), analysisSize),
+                                width,
+                                height);
+                if (!sameAspectRatio(previewSize, analysisSize)) {
+                    // No display size shares the analysis shape; fall back to a single size.
+                    LOGGER.w("No display size matches the analysis aspect ratio");
+                    previewSize = analysisSize;
+                }
+                LOGGER.i("Display size: " + previewSize + ", analysis size: " + analysisSize);
+
+                stillSize =
+                        Collections.max(
+                                Arrays.asList(map.getOutputSizes(ImageFormat.JPEG)),
+                                new CompareSizesByArea());
 
                 // We fit the aspect ratio of TextureView to the size of preview we picked.
                 final int orientation = getResources().getConfiguration().orientation;
@@ -418,6 +607,9 @@ public class CameraConnectionFragment extends Fragment {
                     textureView.setAspectRatio(previewSize.getHeight(), previewSize.getWidth());
                 }
 
+                chooseFpsRanges(
+                        characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES));
+
                 CameraConnectionFragment.this.cameraId = cameraId;
             }
         } catch (final CameraAccessException e) {
@@ -432,7 +624,213 @@ public class CameraConnectionFragment extends Fragment {
             throw new RuntimeException(getString(R.string.camera_error));
         }
 
-        cameraConnectionCallback.onPreviewSizeChosen(previewSize, sensorOrientation);
+        cameraConnectionCallback.onPreviewSizeChosen(analysisSize, sensorOrientation);
+    }
+
+    /**
+     * Collects the supported fps ranges that fall within {@link #desiredFpsRange}, keeping the
+     * widest one for each upper bound so auto-exposure still has room in low light.
+     *
+     * @param available The ranges supported by the camera, may be null
+     */
+    private void chooseFpsRanges(final Range<Integer>[] available) {
+        fpsRangeIndex = -1;
+        fpsRanges = Collections.emptyList();
+        if (desiredFpsRange == null || available == null) {
+            return;
+        }
+        final List<Range<Integer>> ranges = new ArrayList<Range<Integer>>();
+        for (final Range<Integer> range : available) {
+            if (!desiredFpsRange.contains(range.getUpper())
+                    || range.getLower() < desiredFpsRange.getLower()) {
+                continue;
+            }
+            boolean replaced = false;
+            for (int i = 0; i < ranges.size(); ++i) {
+                if (ranges.get(i).getUpper().equals(range.getUpper())) {
+                    if (range.getLower() < ranges.get(i).getLower()) {
+                        ranges.set(i, range);
+                    }
+                    replaced = true;
+                }
+            }
+            if (!replaced) {
+                ranges.add(range);
+            }
+        }
+        Collections.sort(ranges, new Comparator<Range<Integer>>() {
+            @Override
+            public int compare(final Range<Integer> lhs, final Range<Integer> rhs) {
+                return lhs.getUpper() - rhs.getUpper();
+            }
+        });
+        LOGGER.i("Usable fps ranges: [" + TextUtils.join(", ", ranges) + "]");
+        if (ranges.isEmpty()) {
+            LOGGER.w("No supported fps range within " + desiredFpsRange + ", using the default");
+        } else {
+            // Published before the index, so a reader that sees the index sees the list.
+            fpsRanges = Collections.unmodifiableList(ranges);
+            fpsRangeIndex = ranges.size() - 1;
+        }
+    }
+
+    /**
+     * Lowers the capture rate to the next supported fps range, e.g. because the consumer is
+     * dropping frames. Does nothing if already at the slowest range in the desired bounds.
+     */
+    public void stepFrameRateDown() {
+        stepFrameRate(-1);
+    }
+
+    /**
+     * Raises the capture rate to the next supported fps range, up to the desired maximum.
+     */
+    public void stepFrameRateUp() {
+        stepFrameRate(1);
+    }
+
+    /**
+     * Drops the capture rate to the slowest supported fps range while no preview frames are
+     * wanted, e.g. with neither the shutter nor a scan active, and restores the previous rate once
+     * they are wanted again.
+     */
+    public void setFramesWanted(final boolean wanted) {
+        final Handler handler = backgroundHandler;
+        if (handler == null) {
+            return;
+        }
+        handler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        if (framesIdle != wanted) {
+                            return;
+                        }
+                        framesIdle = !wanted;
+                        if (fpsRangeIndex >= 0) {
+                            LOGGER.i("Capture fps range now " + fpsRanges.get(getFpsRangeIndex()));
+                            updatePreviewRequest();
+                        }
+                    }
+                });
+    }
+
+    private void stepFrameRate(final int step) {
+        final Handler handler = backgroundHandler;
+        if (handler == null) {
+            return;
+        }
+        handler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        final int index = fpsRangeIndex + step;
+                        // While idle the camera stays at the slowest range.
+                        if (framesIdle
+                                || fpsRangeIndex < 0
+                                || index < 0
+                                || index >= fpsRanges.size()) {
+                            return;
+                        }
+                        fpsRangeIndex = index;
+                        LOGGER.i("Capture fps range now " + fpsRanges.get(index));
+                        updatePreviewRequest();
+                    }
+                });
+    }
+
+    /**
+     * Re-issues the repeating preview request with the current fps range. Background thread only.
+     */
+    private void updatePreviewRequest() {
+        if (captureSession == null || previewRequestBuilder == null) {
+            return;
+        }
+        if (fpsRangeIndex >= 0) {
+            previewRequestBuilder.set(
+                    CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRanges.get(getFpsRangeIndex()));
+        }
+        try {
+            previewRequest = previewRequestBuilder.build();
+            captureSession.setRepeatingRequest(previewRequest, captureCallback, backgroundHandler);
+        } catch (final CameraAccessException e) {
+            LOGGER.e(e, "Exception!");
+        } catch (final IllegalStateException e) {
+            // The session was closed while this was queued.
+            LOGGER.w("Capture session closed, fps range not applied");
+        }
+    }
+
+    /**
+     * Restarts the frame interval average, e.g. for a new session or fps range. Background thread
+     * only.
+     */
+    private void resetFrameIntervals() {
+        lastSensorTimestampNs = -1;
+        averageFrameIntervalMs = 0;
+        consecutiveGaps = 0;
+        pendingDrops = 0;
+    }
+
+    /** Returns the index of the fps range in use. Background thread only. */
+    private int getFpsRangeIndex() {
+        return framesIdle ? 0 : fpsRangeIndex;
+    }
+
+    /**
+     * Requests a single full-resolution JPEG still, delivered to the still listener. The still is
+     * taken in sensor orientation, without JPEG rotation.
+     *
+     * @return false if there is no still stream, in which case nothing is captured
+     */
+    public boolean captureStill() {
+        final Handler handler = backgroundHandler;
+        if (stillReader == null || handler == null) {
+            return false;
+        }
+        handler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        final ImageReader reader = stillReader;
+                        if (captureSession == null || cameraDevice == null || reader == null) {
+                            return;
+                        }
+                        try {
+                            final CaptureRequest.Builder builder =
+                                    cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+                            builder.addTarget(reader.getSurface());
+                            builder.set(
+                                    CaptureRequest.CONTROL_AF_MODE,
+                                    CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+                            builder.set(
+                                    CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                            captureSession.capture(builder.build(), null, backgroundHandler);
+                        } catch (final CameraAccessException e) {
+                            LOGGER.e(e, "Exception!");
+                        } catch (final IllegalStateException e) {
+                            LOGGER.w("Capture session closed, still not captured");
+                        }
+                    }
+                });
+        return true;
+    }
+
+    /**
+     * Returns a one-line summary of the capture rate and dropped frames.
+     */
+    public String getStatString() {
+        // The index is read second, so it is never newer than the list.
+        final List<Range<Integer>> ranges = fpsRanges;
+        final int index = framesIdle ? 0 : fpsRangeIndex;
+        final float interval = averageFrameIntervalMs;
+        return String.format(
+                "Camera: %.1ffps in %s, %d captured, %d dropped, %d failed",
+                interval > 0 ? 1000 / interval : 0,
+                index >= 0 && index < ranges.size() ? ranges.get(index).toString() : "default",
+                framesCaptured,
+                framesDropped,
+                framesFailed);
     }
 
     /**
@@ -473,6 +871,10 @@ public class CameraConnectionFragment extends Fragment {
                 previewReader.close();
                 previewReader = null;
             }
+            if (null != stillReader) {
+                stillReader.close();
+                stillReader = null;
+            }
         } catch (final InterruptedException e) {
             throw new RuntimeException("Interrupted while trying to lock camera closing.", e);
         } finally {
@@ -517,6 +919,48 @@ public class CameraConnectionFragment extends Fragment {
                         final CameraCaptureSession session,
                         final CaptureRequest request,
                         final TotalCaptureResult result) {
+                    ++framesCaptured;
+                    final Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+                    if (timestamp == null) {
+                        return;
+                    }
+                    final Range<Integer> fpsRange =
+                            result.get(CaptureResult.CONTROL_AE_TARGET_FPS_RANGE);
+                    if (fpsRange != null && !fpsRange.equals(lastResultFpsRange)) {
+                        // Intervals at the previous rate say nothing about this one.
+                        lastResultFpsRange = fpsRange;
+                        resetFrameIntervals();
+                    }
+                    if (lastSensorTimestampNs >= 0) {
+                        final float intervalMs = (timestamp - lastSensorTimestampNs) / 1e6f;
+                        final float average = averageFrameIntervalMs;
+                        if (average == 0) {
+                            averageFrameIntervalMs = intervalMs;
+                        } else if (intervalMs > DROPPED_FRAME_GAP * average) {
+                            // Don't let the gap itself skew the average.
+                            pendingDrops += Math.round(intervalMs / average) - 1;
+                            if (++consecutiveGaps >= RATE_CHANGE_GAPS) {
+                                averageFrameIntervalMs = intervalMs;
+                                consecutiveGaps = 0;
+                                pendingDrops = 0;
+                            }
+                        } else {
+                            framesDropped += pendingDrops;
+                            consecutiveGaps = 0;
+                            pendingDrops = 0;
+                            averageFrameIntervalMs =
+                                    average + FRAME_INTERVAL_SMOOTHING * (intervalMs - average);
+                        }
+                    }
+                    lastSensorTimestampNs = timestamp;
+                }
+
+                @Override
+                public void onCaptureFailed(
+                        final CameraCaptureSession session,
+                        final CaptureRequest request,
+                        final CaptureFailure failure) {
+                    ++framesFailed;
                 }
             };
 
@@ -538,19 +982,37 @@ public class CameraConnectionFragment extends Fragment {
             previewRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
             previewRequestBuilder.addTarget(surface);
 
-            LOGGER.i("Opening camera preview: " + previewSize.getWidth() + "x" + previewSize.getHeight());
+            LOGGER.i("Opening camera preview: " + previewSize.getWidth() + "x" + previewSize.getHeight()
+                    + ", analysis: " + analysisSize.getWidth() + "x" + analysisSize.getHeight());
 
-            // Create the reader for the preview frames.
+            // Create the reader for the analysis frames.
             previewReader =
                     ImageReader.newInstance(
-                            previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 2);
+                            analysisSize.getWidth(), analysisSize.getHeight(), ImageFormat.YUV_420_888, readerDepth);
 
             previewReader.setOnImageAvailableListener(imageListener, backgroundHandler);
             previewRequestBuilder.addTarget(previewReader.getSurface());
 
+            final List<Surface> outputs = new ArrayList<Surface>();
+            outputs.add(surface);
+            outputs.add(previewReader.getSurface());
+
+            // The still stream is only targeted by single captures, never by the repeating
+            // request, so it costs nothing until the shutter is pressed. One image is enough as
+            // the listener copies each still out before the next can be requested.
+            if (stillListener != null) {
+                final ImageReader reader =
+                        ImageReader.newInstance(
+                                stillSize.getWidth(), stillSize.getHeight(), ImageFormat.JPEG, 1);
+                reader.setOnImageAvailableListener(stillListener, backgroundHandler);
+                outputs.add(reader.getSurface());
+                stillReader = reader;
+                LOGGER.i("Still capture: " + stillSize.getWidth() + "x" + stillSize.getHeight());
+            }
+
             // Here, we create a CameraCaptureSession for camera preview.
             cameraDevice.createCaptureSession(
-                    Arrays.asList(surface, previewReader.getSurface()),
+                    outputs,
                     new CameraCaptureSession.StateCallback() {
 
                         @Override
@@ -562,22 +1024,17 @@ public class CameraConnectionFragment extends Fragment {
 
                             // When the session is ready, we start displaying the preview.
                             captureSession = cameraCaptureSession;
-                            try {
-                                // Auto focus should be continuous for camera preview.
-                                previewRequestBuilder.set(
-                                        CaptureRequest.CONTROL_AF_MODE,
-                                        CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-                                // Flash is automatically enabled when necessary.
-                                previewRequestBuilder.set(
-                                        CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
-
-                                // Finally, we start displaying the camera preview.
-                                previewRequest = previewRequestBuilder.build();
-                                captureSession.setRepeatingRequest(
-                                        previewRequest, captureCallback, backgroundHandler);
-                            } catch (final CameraAccessException e) {
-                                LOGGER.e(e, "Exception!");
-                            }
+                            // Auto focus should be continuous for camera preview.
+                            previewRequestBuilder.set(
+                                    CaptureRequest.CONTROL_AF_MODE,
+                                    CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+                            // Flash is automatically enabled when necessary.
+                            previewRequestBuilder.set(
+                                    CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+
+                            // Finally, we start displaying the camera preview.
+                            resetFrameIntervals();
+                            updatePreviewRequest();
                         }
 
                         @Override
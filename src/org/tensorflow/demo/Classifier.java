@@ -46,12 +46,25 @@ public interface Classifier {
     /** Optional location within the source image for the location of the recognized object. */
     private RectF location;
 
+    /** The index of the recognized class in the classifier's labels, or -1 if unknown. */
+    private final int classIndex;
+
     public Recognition(
         final String id, final String title, final Float confidence, final RectF location) {
+      this(id, title, confidence, location, -1);
+    }
+
+    public Recognition(
+        final String id,
+        final String title,
+        final Float confidence,
+        final RectF location,
+        final int classIndex) {
       this.id = id;
       this.title = title;
       this.confidence = confidence;
       this.location = location;
+      this.classIndex = classIndex;
     }
 
     public String getId() {
@@ -66,6 +79,10 @@ public interface Classifier {
       return confidence;
     }
 
+    public int getClassIndex() {
+      return classIndex;
+    }
+
     public RectF getLocation() {
       return new RectF(location);
     }
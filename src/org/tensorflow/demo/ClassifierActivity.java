@@ -1,21 +1,26 @@
 package org.tensorflow.demo;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Paint.Style;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.media.Image;
 import android.media.Image.Plane;
 import android.media.ImageReader;
 import android.media.ImageReader.OnImageAvailableListener;
+import android.os.BatteryManager;
 import android.os.SystemClock;
 import android.os.Trace;
-import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.util.TypedValue;
 import android.view.Display;
@@ -24,22 +29,31 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
+import android.widget.Toast;
 
 import com.qualcomm.qti.snpe.NeuralNetwork;
 import com.qualcomm.qti.snpe.SNPE;
 
+import java.io.IOException;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Vector;
 
 import org.snpeflow.demo.R;
 import org.tensorflow.demo.OverlayView.DrawCallback;
 import org.tensorflow.demo.env.BorderedText;
+import org.tensorflow.demo.env.FramePool;
+import org.tensorflow.demo.env.FrameQueue;
 import org.tensorflow.demo.env.ImageUtils;
 import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.SaliencyMap;
+import org.tensorflow.demo.env.ScanRateController;
+import org.tensorflow.demo.env.SceneChangeGate;
 
 import static com.qualcomm.qti.snpe.NeuralNetwork.Runtime.CPU;
 import static com.qualcomm.qti.snpe.NeuralNetwork.Runtime.DSP;
@@ -77,7 +91,72 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
 
     private static final boolean MAINTAIN_ASPECT = true;
 
-    private static final Size DESIRED_PREVIEW_SIZE = new Size(640, 480);
+    // Analysis frames only need to cover the classifier input; the on-screen preview is sized
+    // separately from the view.
+    private static final Size DESIRED_ANALYSIS_SIZE = new Size(INPUT_SIZE, INPUT_SIZE);
+
+    // The camera runs as fast as it can within this range, and steps down towards the lower end
+    // while the classifier is dropping frames. Below 15fps the viewfinder gets choppy.
+    private static final Range<Integer> DESIRED_FPS_RANGE = new Range<>(15, 30);
+    private static final long FPS_STEP_DOWN_INTERVAL_MS = 1000;
+    private static final long FPS_STEP_UP_INTERVAL_MS = 5000;
+
+    // The shutter takes a full-resolution still and classifies its central square plus a grid
+    // of STILL_TILE_GRID x STILL_TILE_GRID overlapping tiles.
+    private static final int STILL_TILE_GRID = 3;
+
+    // In tiled mode, preview frames are classified as a grid of overlapping tiles whose side is
+    // TILE_SCALE of the frame's shorter side, TILE_STRIDE of a tile apart, instead of only the
+    // center crop. For stills, tiled and salient frames alike, tiles with the same label
+    // overlapping by more than TILE_IOU_THRESHOLD are merged, and outside of continuous scan
+    // every food found with at least TILE_MIN_CONFIDENCE is added.
+    private static final float TILE_SCALE = 0.6f;
+    private static final float TILE_STRIDE = 0.5f;
+    private static final float TILE_IOU_THRESHOLD = 0.3f;
+    private static final float TILE_MIN_CONFIDENCE = 0.3f;
+    private static final int TILE_MAX_RESULTS = 10;
+    private static final int MAX_DISPLAYED_RESULTS = 3;
+
+    // In salient mode, only the SALIENT_REGIONS squares with the most luma gradient energy and
+    // frame-to-frame change are classified, each SALIENT_REGION_SCALE of the frame's shorter
+    // side and overlapping each other by at most SALIENT_MAX_OVERLAP. Saliency is computed on a
+    // SALIENCY_THUMBNAIL_WIDTH wide luma thumbnail, with each unit of change counting
+    // SALIENCY_MOTION_WEIGHT units of gradient.
+    private static final int SALIENT_REGIONS = 3;
+    private static final float SALIENT_REGION_SCALE = 0.5f;
+    private static final float SALIENT_MAX_OVERLAP = 0.2f;
+    private static final int SALIENCY_THUMBNAIL_WIDTH = 64;
+    private static final float SALIENCY_MOTION_WEIGHT = 2.0f;
+    private static final int FRAME_MODE_MENU_GROUP = 2;
+
+    // Frames whose Laplacian variance falls below this are considered too blurry to classify.
+    // The shutter stays armed until a sharp frame arrives, or MAX_BLURRY_FRAMES have passed.
+    private static final float MIN_SHARPNESS = 40.0f;
+    private static final int MAX_BLURRY_FRAMES = 10;
+    private static final int LUMA_SAMPLE_STEP = 2;
+
+    // A frame whose thumbnail differs from the last classified one by less than this mean
+    // absolute luma difference shows the same scene; the previous result is reused instead of
+    // running the network again.
+    private static final int THUMBNAIL_WIDTH = 32;
+    private static final int THUMBNAIL_HEIGHT = 24;
+    private static final float MIN_SCENE_DIFFERENCE = 3.0f;
+
+    // Continuous scan, toggled by long-pressing the shutter. Inference may use at most the
+    // selected fraction of wall-clock time, less once the battery warms up, and none above
+    // SCAN_SUSPEND_CELSIUS.
+    private static final float[] SCAN_BUDGETS = {0.25f, 0.5f, 1.0f};
+    private static final float DEFAULT_SCAN_BUDGET = 0.5f;
+    private static final long SCAN_MIN_INTERVAL_MS = 100;
+    private static final float SCAN_THROTTLE_CELSIUS = 40.0f;
+    private static final float SCAN_SUSPEND_CELSIUS = 45.0f;
+
+    // A scanned food is added once its confidence, averaged over recent scanned frames with
+    // this per-frame decay, reaches SCAN_STABLE_THRESHOLD. A single frame is never enough, and
+    // frames the scene gate skips don't count again for the frame whose results they reuse.
+    private static final float SCAN_DECAY = 0.6f;
+    private static final float SCAN_STABLE_THRESHOLD = 0.5f;
+    private static final int SCAN_BUDGET_MENU_GROUP = 1;
 
     private Classifier classifier;
 
@@ -85,14 +164,35 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
 
     private int previewWidth = 0;
     private int previewHeight = 0;
-    private byte[][] yuvBytes;
+    private FramePool.Frame[] yuvFrames;
     private int[] rgbBytes = null;
     private Bitmap rgbFrameBitmap = null;
-    private Bitmap croppedBitmap = null;
 
-    private Bitmap cropCopyBitmap;
+    // Classifier inputs handed from the camera thread to the inference thread. A new frame
+    // replaces one that is still waiting, so inference always sees the latest complete frame.
+    private static final int FRAME_QUEUE_DEPTH = 1;
+    private FrameQueue<FrameSlot> frameQueue;
 
-    private boolean computing = false;
+    private Bitmap cropCopyBitmap;
+    private Canvas cropCopyCanvas;
+
+    private SceneChangeGate sceneGate;
+    // Frames let through by the scene gate are numbered on the camera thread. sceneFrameId is the
+    // gate's current reference, and sceneTicket the task that classifies it, or null if it was
+    // never queued.
+    private long frameCounter = 0;
+    private volatile long sceneFrameId = -1;
+    private InferenceScheduler.Ticket sceneTicket;
+    // The most recent classifier output and the frame it came from, reused for frames the scene
+    // gate skips.
+    private volatile List<Classifier.Recognition> lastResults;
+    private volatile boolean lastResultsTiled;
+    private volatile long lastResultsFrameId = -1;
+    // Inference thread only. The frame whose results the scan aggregator last counted.
+    private long scannedFrameId = -1;
+    private int blurryFrames = 0;
+    private float lastSharpness;
+    private float lastMeanLuminance;
 
     private Matrix frameToCropTransform;
     private Matrix cropToFrameTransform;
@@ -102,11 +202,70 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
     private BorderedText borderedText;
 
     private long lastProcessingTimeMs;
+
+    /** What part of a preview frame is classified. */
+    private enum FrameMode {
+        CENTER_CROP("Center crop"),
+        TILED("Tiled frames"),
+        SALIENT("Salient regions");
+
+        final String label;
+
+        FrameMode(final String label) {
+            this.label = label;
+        }
+    }
+
+    private volatile FrameMode frameMode = FrameMode.CENTER_CROP;
+
+    // Located results from the last tiled or salient frame, drawn over the preview.
+    private volatile List<Classifier.Recognition> locatedResults;
+    private final Paint boxPaint = new Paint();
+
+    // Inference thread only.
+    private StillTileClassifier stillTiles;
+    private TiledFrameClassifier frameTiles;
+    private final BitSet scannedIngredients = new BitSet();
+    // Ranks recipes against the ingredients found so far, updated as each one is found.
+    private RecipeBase recipes;
+    private IngredientLabels ingredientLabels;
+    private volatile String bestRecipeLine;
+
+    // Camera thread only.
+    private final SaliencyMap saliency = new SaliencyMap(SALIENCY_THUMBNAIL_WIDTH, SALIENCY_MOTION_WEIGHT);
+    private final List<RectF> salientRegions = newRegions(SALIENT_REGIONS);
+    private int salientRegionCount = 0;
+    private long lastDroppedFrames = 0;
+    private long lastFpsStepMs = 0;
+    // Whether the camera was last told that preview frames are wanted. Camera thread only.
+    private boolean framesWanted = true;
     private volatile boolean isButtonPressed = false;
-    private static volatile ArrayList<String> ingredientList = new ArrayList<>();
+
+    private volatile boolean continuousScan = false;
+    private final ScanRateController scanRate =
+            new ScanRateController(
+                    DEFAULT_SCAN_BUDGET, SCAN_MIN_INTERVAL_MS, SCAN_THROTTLE_CELSIUS, SCAN_SUSPEND_CELSIUS);
+    // Only touched on the inference thread.
+    private final RecognitionAggregator scanAggregator =
+            new RecognitionAggregator(SCAN_DECAY, SCAN_STABLE_THRESHOLD);
+
+    private final BroadcastReceiver batteryReceiver =
+            new BroadcastReceiver() {
+                @Override
+                public void onReceive(final Context context, final Intent intent) {
+                    final int tenths = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, -1);
+                    if (tenths >= 0) {
+                        scanRate.onTemperatureChanged(tenths / 10.0f);
+                    }
+                }
+            };
+    // Found ingredients in the order they were first seen, without duplicates.
+    private static final LinkedHashSet<String> ingredients = new LinkedHashSet<>();
     public static ArrayList<String> getIngredients()
     {
-        return ingredientList;
+        synchronized (ingredients) {
+            return new ArrayList<>(ingredients);
+        }
     }
 
 
@@ -117,7 +276,17 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
 
     @Override
     protected Size getDesiredPreviewFrameSize() {
-        return DESIRED_PREVIEW_SIZE;
+        return DESIRED_ANALYSIS_SIZE;
+    }
+
+    @Override
+    protected Range<Integer> getDesiredFpsRange() {
+        return DESIRED_FPS_RANGE;
+    }
+
+    @Override
+    protected OnImageAvailableListener getStillImageListener() {
+        return stillListener;
     }
 
     private static final float TEXT_SIZE_DIP = 10;
@@ -129,6 +298,9 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
                         TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, getResources().getDisplayMetrics());
         borderedText = new BorderedText(textSizePx);
         borderedText.setTypeface(Typeface.MONOSPACE);
+        boxPaint.setColor(Color.GREEN);
+        boxPaint.setStyle(Style.STROKE);
+        boxPaint.setStrokeWidth(textSizePx / 4);
 
         loadNeuralNetwork(DSP, GPU, CPU);
 
@@ -144,9 +316,26 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
         sensorOrientation = rotation + screenOrientation;
 
         LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
-        rgbBytes = new int[previewWidth * previewHeight];
-        rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-        croppedBitmap = Bitmap.createBitmap(INPUT_SIZE, INPUT_SIZE, Config.ARGB_8888);
+        // Frame buffers are only rebuilt when the preview size actually changes.
+        if (rgbFrameBitmap == null
+                || rgbFrameBitmap.getWidth() != previewWidth
+                || rgbFrameBitmap.getHeight() != previewHeight) {
+            rgbBytes = new int[previewWidth * previewHeight];
+            rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
+        }
+        if (frameQueue == null) {
+            frameQueue = new FrameQueue<FrameSlot>(
+                    FRAME_QUEUE_DEPTH,
+                    FrameQueue.OverflowPolicy.DROP_OLDEST,
+                    new FrameQueue.SlotFactory<FrameSlot>() {
+                        @Override
+                        public FrameSlot create() {
+                            return new FrameSlot(INPUT_SIZE);
+                        }
+                    });
+            cropCopyBitmap = Bitmap.createBitmap(INPUT_SIZE, INPUT_SIZE, Config.ARGB_8888);
+            cropCopyCanvas = new Canvas(cropCopyBitmap);
+        }
 
         frameToCropTransform =
                 ImageUtils.getTransformationMatrix(
@@ -157,12 +346,31 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
         cropToFrameTransform = new Matrix();
         frameToCropTransform.invert(cropToFrameTransform);
 
-        yuvBytes = new byte[3][];
+        if (yuvFrames == null) {
+            yuvFrames = new FramePool.Frame[3];
+        }
+        sceneGate = new SceneChangeGate(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, MIN_SCENE_DIFFERENCE);
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                if (recipes == null) {
+                    recipes = new RecipeBase(ClassifierActivity.this, getIngredients());
+                    updateBestRecipe();
+                    try {
+                        ingredientLabels =
+                                IngredientLabels.load(getAssets(), LABEL_FILE, recipes.getIndex());
+                    } catch (final IOException e) {
+                        LOGGER.e(e, "Could not map labels to ingredients; nothing will be found");
+                    }
+                }
+            }
+        });
 
         addCallback(
                 new DrawCallback() {
                     @Override
                     public void drawCallback(final Canvas canvas) {
+                        renderLocations(canvas);
                         renderDebug(canvas);
                     }
                 });
@@ -176,6 +384,14 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
                 menu.add(0, runtime.ordinal(), 0, runtime.name());
             }
         }
+        for (int i = 0; i < SCAN_BUDGETS.length; ++i) {
+            menu.add(SCAN_BUDGET_MENU_GROUP, i, 0,
+                    "Scan budget " + (int) (SCAN_BUDGETS[i] * 100) + "%");
+        }
+        for (final FrameMode mode : FrameMode.values()) {
+            menu.add(FRAME_MODE_MENU_GROUP, mode.ordinal(), 0, mode.label).setChecked(mode == frameMode);
+        }
+        menu.setGroupCheckable(FRAME_MODE_MENU_GROUP, true, true);
         return super.onCreateOptionsMenu(menu);
     }
 
@@ -184,14 +400,25 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
         if (item.getGroupId() == 0) {
             resultsView.setResults(new ArrayList<Classifier.Recognition>());
             loadNeuralNetwork(NeuralNetwork.Runtime.values()[item.getItemId()]);
+        } else if (item.getGroupId() == SCAN_BUDGET_MENU_GROUP) {
+            scanRate.setBudget(SCAN_BUDGETS[item.getItemId()]);
+        } else if (item.getGroupId() == FRAME_MODE_MENU_GROUP) {
+            frameMode = FrameMode.values()[item.getItemId()];
+            item.setChecked(true);
+            locatedResults = null;
+            requestRender();
         }
         return super.onOptionsItemSelected(item);
     }
 
     private void loadNeuralNetwork(final NeuralNetwork.Runtime... runtime) {
+        // Frames queued for the old runtime would only run after the slow load, long stale.
+        getScheduler().cancelFrames();
         runInBackground(new Runnable() {
             @Override
             public void run() {
+                lastResults = null;
+                lastResultsFrameId = -1;
                 resultsView.setResults(Collections.singletonList(new Classifier.Recognition("", "", 0.f, new RectF())));
                 classifier =
                         SnpeImageClassifier.create(
@@ -213,6 +440,7 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
     @Override
     public void onImageAvailable(final ImageReader reader) {
         Image image = null;
+        boolean scanning = false;
 
         try {
             image = reader.acquireLatestImage();
@@ -221,36 +449,70 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
                 return;
             }
 
-            if (computing) {
+            final long now = SystemClock.uptimeMillis();
+            adaptFrameRate(now);
+            scanning = !isButtonPressed && continuousScan && scanRate.isDue(now);
+            if (!isButtonPressed && !scanning) {
                 image.close();
                 return;
             }
-            if (!isButtonPressed) {
+
+            Trace.beginSection("imageAvailable");
+
+            final Plane[] planes = image.getPlanes();
+            fillFrames(planes, yuvFrames);
+
+            final int yRowStride = planes[0].getRowStride();
+
+            // Cheap luma-only checks so blurry or unchanged frames never reach the classifier.
+            lastSharpness = ImageUtils.computeLaplacianVariance(
+                    yuvFrames[0].getBuffer(), previewWidth, previewHeight, yRowStride, LUMA_SAMPLE_STEP);
+            lastMeanLuminance = ImageUtils.computeMeanLuminance(
+                    yuvFrames[0].getBuffer(), previewWidth, previewHeight, yRowStride, LUMA_SAMPLE_STEP);
+            if (lastSharpness < MIN_SHARPNESS && ++blurryFrames < MAX_BLURRY_FRAMES) {
                 image.close();
+                Trace.endSection();
                 return;
             }
+            blurryFrames = 0;
             isButtonPressed = false;
-            computing = true;
+            if (scanning) {
+                scanRate.onFrameScheduled(now);
+            }
 
-            Trace.beginSection("imageAvailable");
+            if (lastResults == null || isSceneResultLost()) {
+                // Nothing to reuse, e.g. after switching runtimes, or because the frame that set
+                // the scene was dropped before it was classified.
+                sceneGate.reset();
+            }
+            if (!sceneGate.hasChanged(
+                    yuvFrames[0].getBuffer(), previewWidth, previewHeight, yRowStride)) {
+                image.close();
+                runFrameInBackground(scanning ? reuseScanResult : reuseShutterResult);
+                Trace.endSection();
+                return;
+            }
+            sceneFrameId = ++frameCounter;
+            sceneTicket = null;
 
-            final Plane[] planes = image.getPlanes();
-            fillBytes(planes, yuvBytes);
+            if (frameMode == FrameMode.SALIENT) {
+                saliency.update(yuvFrames[0].getBuffer(), previewWidth, previewHeight, yRowStride);
+                salientRegionCount =
+                        saliency.findRegions(SALIENT_REGION_SCALE, SALIENT_MAX_OVERLAP, salientRegions);
+            }
 
-            final int yRowStride = planes[0].getRowStride();
             final int uvRowStride = planes[1].getRowStride();
             final int uvPixelStride = planes[1].getPixelStride();
-            ImageUtils.convertYUV420ToARGB8888(
-                    yuvBytes[0],
-                    yuvBytes[1],
-                    yuvBytes[2],
+            ImageUtils.convertYUV420ToARGB8888Direct(
+                    yuvFrames[0].getBuffer(),
+                    yuvFrames[1].getBuffer(),
+                    yuvFrames[2].getBuffer(),
                     rgbBytes,
                     previewWidth,
                     previewHeight,
                     yRowStride,
                     uvRowStride,
-                    uvPixelStride,
-                    false);
+                    uvPixelStride);
 
             image.close();
         } catch (final Exception e) {
@@ -262,60 +524,360 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
             return;
         }
 
-        rgbFrameBitmap.setPixels(rgbBytes, 0, previewWidth, 0, 0, previewWidth, previewHeight);
-        final Canvas canvas = new Canvas(croppedBitmap);
-        canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+        final FrameSlot slot = frameQueue.claim();
+        if (slot == null) {
+            Trace.endSection();
+            return;
+        }
+        slot.frameId = sceneFrameId;
+        slot.scanned = scanning;
+        slot.mode = frameMode;
+        slot.regionCount = 0;
+        if (slot.mode == FrameMode.SALIENT) {
+            for (int i = 0; i < salientRegionCount; ++i) {
+                slot.regions.get(i).set(salientRegions.get(i));
+            }
+            slot.regionCount = salientRegionCount;
+        }
+        try {
+            if (slot.mode != FrameMode.CENTER_CROP) {
+                // The inference thread crops tiles from the whole frame, so the slot needs its own
+                // copy.
+                if (slot.frameBitmap == null
+                        || slot.frameBitmap.getWidth() != previewWidth
+                        || slot.frameBitmap.getHeight() != previewHeight) {
+                    slot.frameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
+                }
+                slot.frameBitmap.setPixels(rgbBytes, 0, previewWidth, 0, 0, previewWidth, previewHeight);
+                slot.canvas.drawBitmap(slot.frameBitmap, frameToCropTransform, null);
+            } else {
+                rgbFrameBitmap.setPixels(rgbBytes, 0, previewWidth, 0, 0, previewWidth, previewHeight);
+                slot.canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+            }
+
+            // For examining the actual TF input.
+            if (SAVE_PREVIEW_BITMAP) {
+                ImageUtils.saveBitmap(slot.croppedBitmap);
+            }
+        } catch (final RuntimeException e) {
+            frameQueue.abandon(slot);
+            LOGGER.e(e, "Exception!");
+            Trace.endSection();
+            return;
+        }
+        frameQueue.publish(slot);
+        sceneTicket = runFrameInBackground(classifyNextFrame);
+        Trace.endSection();
+    }
+
+    /**
+     * Camera thread only. Returns true if the scene gate's reference frame will never be
+     * classified: it wasn't queued, its task was dropped or cancelled, or its task ran without
+     * producing results, e.g. because the classifier was being replaced. A newer frame that
+     * replaced it in the frame queue is classified in its place and becomes the reference itself.
+     */
+    private boolean isSceneResultLost() {
+        final InferenceScheduler.Ticket ticket = sceneTicket;
+        return ticket == null
+                || ticket.isCancelled()
+                || (ticket.isFinished() && lastResultsFrameId != sceneFrameId);
+    }
 
-        // For examining the actual TF input.
-        if (SAVE_PREVIEW_BITMAP) {
-            ImageUtils.saveBitmap(croppedBitmap);
+    /**
+     * Camera thread only. Runs the camera at its slowest while no frames are wanted, since every
+     * frame is then closed unused. Otherwise slows it down while the frame queue is dropping
+     * frames the classifier can't keep up with, and speeds it back up once it has been keeping up
+     * for a while.
+     */
+    private void adaptFrameRate(final long now) {
+        final CameraConnectionFragment fragment = getCameraFragment();
+        if (frameQueue == null || fragment == null) {
+            return;
         }
-        runInBackground(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        if (classifier == null) return;
+        final boolean wanted =
+                isButtonPressed || (continuousScan && scanRate.getIntervalMs() != Long.MAX_VALUE);
+        if (wanted != framesWanted) {
+            framesWanted = wanted;
+            fragment.setFramesWanted(wanted);
+            // Judge the restored rate afresh.
+            lastDroppedFrames = frameQueue.getDroppedCount();
+            lastFpsStepMs = now;
+        }
+        if (!wanted) {
+            return;
+        }
+        final long dropped = frameQueue.getDroppedCount();
+        if (dropped != lastDroppedFrames) {
+            lastDroppedFrames = dropped;
+            if (now - lastFpsStepMs >= FPS_STEP_DOWN_INTERVAL_MS) {
+                fragment.stepFrameRateDown();
+                lastFpsStepMs = now;
+            }
+        } else if (now - lastFpsStepMs >= FPS_STEP_UP_INTERVAL_MS) {
+            fragment.stepFrameRateUp();
+            lastFpsStepMs = now;
+        }
+    }
 
-                        Classifier.InferenceResult results = classifier.recognizeImage(croppedBitmap);
-                        lastProcessingTimeMs = results.time;
+    /** A preallocated classifier input, owned by either the camera or the inference thread. */
+    private static class FrameSlot {
+        final Bitmap croppedBitmap;
+        final Canvas canvas;
+        // The scene gate's number for the frame.
+        long frameId;
+        // Whether the frame came from continuous scan rather than the shutter.
+        boolean scanned;
+        FrameMode mode;
+        // The regions to classify in salient mode, in frame pixels.
+        final List<RectF> regions = newRegions(SALIENT_REGIONS);
+        int regionCount;
+        // The full frame, only allocated once the slot is used in tiled or salient mode.
+        Bitmap frameBitmap;
+
+        FrameSlot(final int size) {
+            croppedBitmap = Bitmap.createBitmap(size, size, Config.ARGB_8888);
+            canvas = new Canvas(croppedBitmap);
+        }
+    }
 
-                        cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-                        if (results.result.size() > 0 && checkResult(results.result.get(0).getTitle())) {
+    private static List<RectF> newRegions(final int count) {
+        final List<RectF> regions = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            regions.add(new RectF());
+        }
+        return regions;
+    }
 
-                            synchronized(ingredientList) {
-                                ingredientList.add(results.result.get(0).getTitle());
-                            }
-                            if(ingredientList.size() == 0)
-                            {
-                                Log.d("FUCKU PRANVU", "run: size is 0");
-                            }
+    private final Runnable classifyNextFrame =
+            new Runnable() {
+                @Override
+                public void run() {
+                    // Frames that were replaced while waiting leave nothing to poll.
+                    final FrameSlot slot = frameQueue.poll();
+                    if (slot == null) return;
+                    final long startTime = SystemClock.uptimeMillis();
+                    try {
+                        if (classifier == null) return;
 
+                        if (frameTiles == null) {
+                            frameTiles = new TiledFrameClassifier(
+                                    INPUT_SIZE, TILE_SCALE, TILE_STRIDE, TILE_IOU_THRESHOLD, TILE_MAX_RESULTS);
+                        }
+                        final List<Classifier.Recognition> results;
+                        if (slot.mode == FrameMode.TILED) {
+                            results = frameTiles.classify(classifier, slot.frameBitmap, sensorOrientation);
+                            lastProcessingTimeMs = frameTiles.getLastProcessingTimeMs();
+                        } else if (slot.mode == FrameMode.SALIENT) {
+                            results = frameTiles.classify(
+                                    classifier, slot.frameBitmap, slot.regions, slot.regionCount, sensorOrientation);
+                            lastProcessingTimeMs = frameTiles.getLastProcessingTimeMs();
+                        } else {
+                            final Classifier.InferenceResult inference = classifier.recognizeImage(slot.croppedBitmap);
+                            results = inference.result;
+                            lastProcessingTimeMs = inference.time;
+                        }
 
-                            resultsView.setResults(results.result);
+                        if (isDebug()) {
+                            cropCopyCanvas.drawBitmap(slot.croppedBitmap, 0, 0, null);
+                        }
+                        final boolean tiled = slot.mode != FrameMode.CENTER_CROP;
+                        lastResults = results;
+                        lastResultsTiled = tiled;
+                        lastResultsFrameId = slot.frameId;
+                        locatedResults = tiled ? results : null;
+                        if (slot.scanned) {
+                            scannedFrameId = slot.frameId;
                         }
+                        handleResults(results, slot.scanned, tiled);
                         requestRender();
-                        computing = false;
+                    } finally {
+                        if (slot.scanned) {
+                            scanRate.onInferenceFinished(SystemClock.uptimeMillis() - startTime);
+                        }
+                        frameQueue.recycle(slot);
                     }
-                });
-        Trace.endSection();
+                }
+            };
+
+    // Run on the inference thread in place of classification when the scene hasn't changed.
+    // These are posted after the task that classifies the frame that set the scene, but that
+    // task may still be dropped from the frame lane, so the reuse decision is made here.
+    private final Runnable reuseScanResult =
+            new Runnable() {
+                @Override
+                public void run() {
+                    reuseResults(true);
+                }
+            };
+
+    private final Runnable reuseShutterResult =
+            new Runnable() {
+                @Override
+                public void run() {
+                    reuseResults(false);
+                }
+            };
+
+    /**
+     * Inference thread only. Replays the last results if they came from the scene gate's current
+     * reference frame. Otherwise they belong to an earlier scene and are not fed to the
+     * aggregator; the camera thread resets the gate once it sees the reference was lost.
+     *
+     * <p>The scan aggregator counts each classified frame once, so a scanned replay of results it
+     * has already counted only redraws them.
+     */
+    private void reuseResults(final boolean scanned) {
+        final List<Classifier.Recognition> results = lastResults;
+        if (results == null || lastResultsFrameId != sceneFrameId) {
+            return;
+        }
+        if (scanned) {
+            if (scannedFrameId == lastResultsFrameId) {
+                requestRender();
+                return;
+            }
+            scannedFrameId = lastResultsFrameId;
+        }
+        handleResults(results, scanned, lastResultsTiled);
+        requestRender();
     }
 
-    private String[] food = {"strawberry", "apple", "orange", "lemon", "fig", "pineapple", "banana",
-                            "jackfruit", "custard apple", "pomegranate", "rapeseed", "corn", "hammer",
-                            "Dungeness crab", "rock crab", "fiddler crab", "king crab", "American lobster",
-                            "mashed potato", "bell pepper", "head cabbage", "broccoli", "cauliflower", "zucchini",
-                            "spaghetti squash", "acorn squash", "butternut squash", "cucumber", "artichoke", "cardoon",
-                            "mushroom", "cocktail shaker", "bagel", "hot pot", "whiskey jug", "beer bottle", "red wine",
-                            "drumstick", "meat loaf", "beer glass", "guacamole", "eggnog", "potpie", "wine bottle", "dough",
-                            "French loaf", "milk can", "hotdog", "burrito", "water bottle", "pickelhaube", "goblet", "ice cream", "pretzel",
-                            "cheeseburger"};
-
-    private boolean checkResult(String title) {
-        return Arrays.asList(food).contains(title);
+    // Runs on the camera thread. Copies the JPEG out so the reader can take the next still.
+    private final OnImageAvailableListener stillListener =
+            new OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(final ImageReader reader) {
+                    final Image image = reader.acquireNextImage();
+                    if (image == null) {
+                        return;
+                    }
+                    final byte[] jpeg;
+                    try {
+                        final ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+                        jpeg = new byte[buffer.remaining()];
+                        buffer.get(jpeg);
+                    } finally {
+                        image.close();
+                    }
+                    runInBackground(new Runnable() {
+                        @Override
+                        public void run() {
+                            classifyStill(jpeg);
+                        }
+                    });
+                }
+            };
+
+    /** Inference thread only. */
+    private void classifyStill(final byte[] jpeg) {
+        if (classifier == null) return;
+        if (stillTiles == null) {
+            stillTiles = new StillTileClassifier(INPUT_SIZE, STILL_TILE_GRID, TILE_IOU_THRESHOLD);
+        }
+
+        final List<Classifier.Recognition> results;
+        try {
+            results = stillTiles.classify(classifier, jpeg, jpeg.length, sensorOrientation);
+        } catch (final IOException e) {
+            LOGGER.e(e, "Could not decode still");
+            return;
+        }
+        lastProcessingTimeMs = stillTiles.getLastProcessingTimeMs();
+
+        if (isDebug()) {
+            cropCopyCanvas.drawBitmap(stillTiles.getTileBitmap(), 0, 0, null);
+        }
+        // Located in still pixels, which don't map onto the preview.
+        locatedResults = null;
+        handleResults(results, false, true);
+        requestRender();
+    }
+
+    /**
+     * Inference thread only. Adds the foods found in one frame's results.
+     *
+     * @param tiled Whether the results were merged from several tiles, each of which may show a
+     *     different food, rather than coming from a single crop.
+     */
+    private void handleResults(
+            final List<Classifier.Recognition> results, final boolean scanned, final boolean tiled) {
+        boolean accepted = false;
+        if (scanned) {
+            scanAggregator.nextFrame();
+            // Tiles, and related labels, can report the same ingredient more than once; only the
+            // most confident counts.
+            scannedIngredients.clear();
+            for (final Classifier.Recognition recognition : results) {
+                final int ingredient = getIngredient(recognition);
+                if (ingredient >= 0 && !scannedIngredients.get(ingredient)) {
+                    scannedIngredients.set(ingredient);
+                    if (scanAggregator.add(ingredient, recognition.getConfidence())) {
+                        addIngredient(ingredient);
+                        accepted = true;
+                    }
+                }
+            }
+        } else if (tiled) {
+            for (final Classifier.Recognition recognition : results) {
+                final int ingredient = getIngredient(recognition);
+                if (recognition.getConfidence() >= TILE_MIN_CONFIDENCE && ingredient >= 0) {
+                    addIngredient(ingredient);
+                    accepted = true;
+                }
+            }
+        } else if (results.size() > 0 && getIngredient(results.get(0)) >= 0) {
+            // The shutter is an explicit request, so its top result is taken as is.
+            addIngredient(getIngredient(results.get(0)));
+            accepted = true;
+        }
+        if (accepted) {
+            resultsView.setResults(results.subList(0, Math.min(results.size(), MAX_DISPLAYED_RESULTS)));
+        }
+    }
+
+    /** Inference thread only. Returns the ingredient id of a recognition, or -1 if not food. */
+    private int getIngredient(final Classifier.Recognition recognition) {
+        return ingredientLabels != null
+                ? ingredientLabels.getIngredient(recognition.getClassIndex())
+                : -1;
+    }
+
+    /** Inference thread only. */
+    private void addIngredient(final int ingredient) {
+        if (recipes == null || !recipes.addIngredient(ingredient)) {
+            return;
+        }
+        final String name = recipes.getIndex().getIngredientName(ingredient);
+        synchronized (ingredients) {
+            ingredients.add(name);
+        }
+        LOGGER.i("Found ingredient: %s", name);
+        updateBestRecipe();
+    }
+
+    /** Inference thread only. */
+    private void updateBestRecipe() {
+        final ArrayList<RecipeBase.Recipe> best = recipes.getRankedRecipes(1);
+        if (best.isEmpty()) {
+            bestRecipeLine = recipes.getStatString();
+        } else {
+            final RecipeBase.Recipe recipe = best.get(0);
+            bestRecipeLine = recipes.getStatString() + ", best " + recipe.recipeName + " ("
+                    + recipe.availableIngredients.size() + "/"
+                    + (recipe.availableIngredients.size() + recipe.unavailableIngredients.size()) + ")";
+        }
+    }
+
+    @Override
+    public synchronized void onResume() {
+        super.onResume();
+        // Sticky, so the current temperature is delivered immediately.
+        registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
     }
 
     @Override
     public synchronized void onPause() {
+        unregisterReceiver(batteryReceiver);
         runInBackground(new Runnable() {
             @Override
             public void run() {
@@ -326,6 +888,18 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
         super.onPause();
     }
 
+    @Override
+    public synchronized void onDestroy() {
+        // The inference thread has been stopped in onPause, so nothing is using it any more.
+        if (frameTiles != null) {
+            frameTiles.close();
+        }
+        if (yuvFrames != null) {
+            releaseFrames(yuvFrames);
+        }
+        super.onDestroy();
+    }
+
     @Override
     public void onSetDebug(final boolean debug) {
         runInBackground(new Runnable() {
@@ -337,6 +911,42 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
         });
     }
 
+    /** Outlines where the most confident results of the last tiled or salient frame were found. */
+    private void renderLocations(final Canvas canvas) {
+        final List<Classifier.Recognition> results = locatedResults;
+        if (results == null || sensorOrientation == null) {
+            return;
+        }
+
+        // The preview fills the view's width and sits at its bottom, rotated like the frame.
+        final boolean rotated = sensorOrientation % 180 != 0;
+        final int rotatedWidth = rotated ? previewHeight : previewWidth;
+        final int rotatedHeight = rotated ? previewWidth : previewHeight;
+        final float multiplier =
+                Math.min(canvas.getWidth() / (float) rotatedWidth, canvas.getHeight() / (float) rotatedHeight);
+        final int canvasFrameHeight = (int) (multiplier * rotatedHeight);
+        final Matrix frameToCanvas =
+                ImageUtils.getTransformationMatrix(
+                        previewWidth, previewHeight,
+                        (int) (multiplier * rotatedWidth), canvasFrameHeight,
+                        sensorOrientation, false);
+        frameToCanvas.postTranslate(0, canvas.getHeight() - canvasFrameHeight);
+
+        final RectF box = new RectF();
+        for (int i = 0; i < Math.min(results.size(), MAX_DISPLAYED_RESULTS); ++i) {
+            final Classifier.Recognition recognition = results.get(i);
+            // Whole-frame results have no location, which comes back as an empty rectangle.
+            final RectF location = recognition.getLocation();
+            if (location.isEmpty()) {
+                continue;
+            }
+            frameToCanvas.mapRect(box, location);
+            canvas.drawRect(box, boxPaint);
+            borderedText.drawText(canvas, box.left, box.bottom,
+                    String.format("%s %.2f", recognition.getTitle(), recognition.getConfidence()));
+        }
+    }
+
     private void renderDebug(final Canvas canvas) {
         if (!isDebug()) {
             return;
@@ -361,9 +971,34 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
             }
 
             lines.add("Frame: " + previewWidth + "x" + previewHeight);
+            final CameraConnectionFragment fragment = getCameraFragment();
+            if (fragment != null) {
+                lines.add(fragment.getStatString());
+            }
             lines.add("Crop: " + copy.getWidth() + "x" + copy.getHeight());
             lines.add("View: " + canvas.getWidth() + "x" + canvas.getHeight());
             lines.add("Rotation: " + sensorOrientation);
+            lines.add(FramePool.getDefault().getStatString());
+            lines.add(String.format("Sharpness: %.1f, Luma: %.1f", lastSharpness, lastMeanLuminance));
+            if (sceneGate != null) {
+                lines.add(sceneGate.getStatString());
+            }
+            if (frameQueue != null) {
+                lines.add("Frames: " + frameQueue.getPublishedCount() + " queued, "
+                        + frameQueue.getDroppedCount() + " dropped");
+            }
+            lines.add(getScheduler().getStatString());
+            if (bestRecipeLine != null) {
+                lines.add(bestRecipeLine);
+            }
+            if (continuousScan) {
+                lines.add(scanRate.getStatString());
+            }
+            if (frameMode != FrameMode.CENTER_CROP && frameTiles != null) {
+                lines.add(frameMode.label + ": "
+                        + (frameMode == FrameMode.SALIENT ? salientRegionCount : frameTiles.getTileCount())
+                        + " tiles");
+            }
             lines.add("Inference time: " + lastProcessingTimeMs + "ms");
 
             borderedText.drawLines(canvas, 10, canvas.getHeight() - 10, lines);
@@ -371,8 +1006,28 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
     }
 
     public void buttonPress() {
+        final CameraConnectionFragment fragment = getCameraFragment();
+        if (fragment != null && fragment.captureStill()) {
+            return;
+        }
+        // No still stream, classify the next sharp preview frame instead.
         isButtonPressed = true;
     }
 
+    public void toggleContinuousScan() {
+        continuousScan = !continuousScan;
+        if (continuousScan) {
+            runInBackground(new Runnable() {
+                @Override
+                public void run() {
+                    scanAggregator.clear();
+                }
+            });
+        }
+        Toast.makeText(this,
+                continuousScan ? "Continuous scan on" : "Continuous scan off",
+                Toast.LENGTH_SHORT).show();
+    }
+
 
 }
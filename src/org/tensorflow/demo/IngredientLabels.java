@@ -0,0 +1,106 @@
+package org.tensorflow.demo;
+
+import android.content.res.AssetManager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.tensorflow.demo.env.CsvReader;
+import org.tensorflow.demo.env.Logger;
+
+/**
+ * Maps classifier classes to the recipe index's canonical ingredients, so that related labels
+ * such as "king crab" and "Dungeness crab" both count as "crab".
+ *
+ * <p>The table is resolved once from the classifier's label file and {@link #INGREDIENT_FILE},
+ * which lists the food labels as label,ingredient. Afterwards a recognition's class index is
+ * turned into an ingredient id with one array lookup, with no strings involved.
+ */
+public class IngredientLabels {
+    private static final Logger LOGGER = new Logger();
+
+    public static final String INGREDIENT_FILE = "label_ingredients.csv";
+
+    // Ingredient id per class index, or -1 for classes that aren't food.
+    private final int[] classIngredients;
+    private final int foodClassCount;
+
+    /**
+     * @param labels The classifier's labels, by class index.
+     * @param mapping Records of the form label,ingredient.
+     * @param index Resolves the canonical ingredient names.
+     */
+    public IngredientLabels(List<String> labels, CsvReader mapping, RecipeIndex index)
+            throws IOException {
+        HashMap<String, Integer> classes = new HashMap<>();
+        for (int i = 0; i < labels.size(); i++) {
+            classes.put(labels.get(i), i);
+        }
+        classIngredients = new int[labels.size()];
+        Arrays.fill(classIngredients, -1);
+
+        int foodClasses = 0;
+        ArrayList<String> fields = new ArrayList<>();
+        while (mapping.readRecord(fields)) {
+            if (fields.size() < 2) {
+                LOGGER.w("Skipping malformed label mapping before line %d", mapping.getLineNumber());
+                continue;
+            }
+            Integer classIndex = classes.get(fields.get(0));
+            int ingredient = index.getIngredientId(fields.get(1));
+            if (classIndex == null) {
+                LOGGER.w("Unknown label %s", fields.get(0));
+            } else if (ingredient < 0) {
+                LOGGER.w("Ingredient %s of label %s is not in the recipe index",
+                        fields.get(1), fields.get(0));
+            } else if (classIngredients[classIndex] < 0) {
+                classIngredients[classIndex] = ingredient;
+                foodClasses++;
+            }
+        }
+        foodClassCount = foodClasses;
+    }
+
+    /** Reads the classifier's label file and {@link #INGREDIENT_FILE} from the assets. */
+    public static IngredientLabels load(AssetManager assets, String labelFile, RecipeIndex index)
+            throws IOException {
+        ArrayList<String> labels = new ArrayList<>();
+        BufferedReader reader =
+                new BufferedReader(new InputStreamReader(assets.open(labelFile), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                labels.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+
+        CsvReader mapping =
+                new CsvReader(new InputStreamReader(assets.open(INGREDIENT_FILE), "UTF-8"));
+        try {
+            IngredientLabels result = new IngredientLabels(labels, mapping, index);
+            LOGGER.i("Mapped %d of %d labels to ingredients",
+                    result.foodClassCount, labels.size());
+            return result;
+        } finally {
+            mapping.close();
+        }
+    }
+
+    /** Returns the ingredient id of a class, or -1 if it isn't food or the index is unknown. */
+    public int getIngredient(int classIndex) {
+        return classIndex >= 0 && classIndex < classIngredients.length
+                ? classIngredients[classIndex]
+                : -1;
+    }
+
+    public int getFoodClassCount() {
+        return foodClassCount;
+    }
+}
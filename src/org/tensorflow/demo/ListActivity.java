@@ -6,6 +6,7 @@ import android.content.Intent;
 import android.net.Uri;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
@@ -40,19 +41,26 @@ public class ListActivity extends AppCompatActivity {
 
         if (ingredients == null || ingredients.size() == 0) {
             Log.d(TAG, "No ingredients found!!!!!!!!!!!!!!!!!!!");
-            RecipeBase tmp = new RecipeBase();
-            recipeList = tmp.recipeList;
+            RecipeBase tmp = new RecipeBase(this);
+            recipeList = tmp.getAllRecipes();
         } else {
-            RecipeBase tmp = new RecipeBase(ingredients);
+            RecipeBase tmp = new RecipeBase(this, ingredients);
             for(int i = 0; i < ingredients.size(); i++){
                 Log.d(TAG, ingredients.get(i));
             }
             recipeList = tmp.getRecipes();
+            Log.d(TAG, RecipeBase.getQueryCache().getStatString());
         }
 
         final ArrayList<String> list = new ArrayList<String>();
         for (int i = 0, len = recipeList.size(); i < len; ++i) {
-            list.add(recipeList.get(i).recipeName);
+            RecipeBase.Recipe recipe = recipeList.get(i);
+            if (recipe.substitutions.isEmpty()) {
+                list.add(recipe.recipeName);
+            } else {
+                list.add(recipe.recipeName
+                        + " (" + TextUtils.join(", ", recipe.substitutions) + ")");
+            }
         }
 
         final StableArrayAdapter adapter = new StableArrayAdapter(this,
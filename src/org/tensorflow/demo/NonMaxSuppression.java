@@ -0,0 +1,93 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.graphics.RectF;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.tensorflow.demo.Classifier.Recognition;
+
+/**
+ * Greedy per-label non-maximum suppression for recognitions from overlapping tiles.
+ */
+public class NonMaxSuppression {
+  private static final Comparator<Recognition> BY_CONFIDENCE =
+      new Comparator<Recognition>() {
+        @Override
+        public int compare(final Recognition lhs, final Recognition rhs) {
+          // Intentionally reversed to put high confidence first.
+          return Float.compare(rhs.getConfidence(), lhs.getConfidence());
+        }
+      };
+
+  private NonMaxSuppression() {}
+
+  /**
+   * Keeps the most confident recognitions, dropping any whose location overlaps an already kept
+   * recognition of the same label by more than {@code iouThreshold}. Recognitions without a
+   * location, which {@link Recognition#getLocation} returns as an empty rectangle, only suppress,
+   * and are only suppressed by, others of the same label without one.
+   *
+   * @param candidates The recognitions to filter. Sorted in place.
+   * @param iouThreshold Intersection over union above which two locations are the same object.
+   * @param maxResults The maximum number of recognitions to keep.
+   * @return The kept recognitions, most confident first.
+   */
+  public static List<Recognition> apply(
+      final List<Recognition> candidates, final float iouThreshold, final int maxResults) {
+    Collections.sort(candidates, BY_CONFIDENCE);
+    final List<Recognition> kept = new ArrayList<Recognition>();
+    for (final Recognition candidate : candidates) {
+      if (kept.size() >= maxResults) {
+        break;
+      }
+      boolean suppressed = false;
+      for (final Recognition other : kept) {
+        if (other.getTitle().equals(candidate.getTitle())
+            && overlap(other.getLocation(), candidate.getLocation()) > iouThreshold) {
+          suppressed = true;
+          break;
+        }
+      }
+      if (!suppressed) {
+        kept.add(candidate);
+      }
+    }
+    return kept;
+  }
+
+  /**
+   * Returns the intersection over union of two rectangles. Null or empty rectangles stand for no
+   * location; two of them are identical, and one never overlaps a real location.
+   */
+  static float overlap(final RectF a, final RectF b) {
+    final boolean aMissing = a == null || a.isEmpty();
+    final boolean bMissing = b == null || b.isEmpty();
+    if (aMissing || bMissing) {
+      return aMissing && bMissing ? 1 : 0;
+    }
+    final float width = Math.min(a.right, b.right) - Math.max(a.left, b.left);
+    final float height = Math.min(a.bottom, b.bottom) - Math.max(a.top, b.top);
+    if (width <= 0 || height <= 0) {
+      return 0;
+    }
+    final float intersection = width * height;
+    final float union = a.width() * a.height() + b.width() * b.height() - intersection;
+    return intersection / union;
+  }
+}
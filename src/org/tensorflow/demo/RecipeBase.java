@@ -1,90 +1,344 @@
 package org.tensorflow.demo;
 
+import android.content.Context;
+import android.content.res.AssetManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.tensorflow.demo.env.CsvReader;
+import org.tensorflow.demo.env.Logger;
 
 public class RecipeBase {
+    private static final Logger LOGGER = new Logger();
+
+    // One recipe per line: name,url,ingredient,... Fields containing commas are double-quoted.
+    private static final String RECIPE_FILE = "recipes.csv";
+    // RECIPE_FILE compiled by RecipeIndexBuilder at build time; see recipe-index.gradle.
+    private static final String INDEX_FILE = "recipes.idx";
+
+    private static final int QUERY_CACHE_SIZE = 32;
+
+    // Shared by every RecipeBase, since each ListActivity builds its own.
+    private static final RecipeQueryCache queryCache = new RecipeQueryCache(QUERY_CACHE_SIZE);
+
     private ArrayList<String> myIngredients;
-    ArrayList<Recipe> recipeList;
-    private String[] lines = {
-            "Strawberry Banana Smoothie,https://www.readyseteat.com/recipes-Strawberry-Banana-Smoothie-3519,ice cream,strawberry,banana,milk can",
-            "Lemonade,http://allrecipes.com/recipe/32385/best-lemonade-ever/,lemon,water bottle,sugar",
-            "Orange Sherbet,http://www.foodnetwork.com/recipes/alton-brown/orange-sherbet-recipe-1945337,orange,lemon,ice cream,milk can",
-            "Pineapple Rice,https://www.littlebroken.com/2015/06/29/pineapple-rice/,pineapple,lemon,rice,water bottle",
-            "Indian Street Corn,http://www.foodnetwork.com/recipes/aarti-sequeira/indian-street-corn-salad-recipe-2121054,corn,lemon,spices",
-            "Summer Fruit Salad,http://allrecipes.com/recipe/214947/perfect-summer-fruit-salad/,orange,strawberry,banana,lemon,pineapple",
-            "Sweet Corn and Mushroom Stir-Fry,http://www.foodandwine.com/recipes/sweet-corn-and-mushroom-stir-fry,corn,mushroom",
-            "Cauliflower Zucchini Pancakes,https://www.heb.com/recipe/recipe-item/cauliflower-zucchini-pancakes/1398657907366?_requestid=1036985,cauliflower,zucchini",
-            "Lobster Américaine,http://www.myrecipes.com/recipe/lobster-amricaine,American lobster,water bottle",
-            "Drunken Alaskan King Crab Legs,http://www.foodnetwork.com/recipes/drunken-alaskan-king-crab-legs-3646016,king crab,beer bottle,lemon",
-            "Traditional Sushi Rolls,http://www.foodnetwork.com/recipes/sushi-rolls-recipe-2040225,hammer",
-            "Creamy Smoked Salmon Pasta,http://allrecipes.com/recipe/24961/creamy-smoked-salmon-pasta/?internalSource=streams&referringId=416&referringContentType=recipe%20hub&clickId=st_trending_s,hammer",
-            "Filet Mignon,http://www.noreciperequired.com/technique/how-cook-perfect-filet-mignon,hammer"
-            };
-
-    public RecipeBase(ArrayList<String> ingredients) {
+    private final RecipeIndex index;
+    private final RecipeIndex.Matches matches = new RecipeIndex.Matches();
+    // Tracks myIngredients as they change, ranked by coverage.
+    private final RecipeMatcher session;
+    // Changes with the corpus or the substitutions, for queryCache.
+    private final long version;
+
+    public RecipeBase(Context context, ArrayList<String> ingredients) {
         this.myIngredients = ingredients;
-        recipeList = new ArrayList<Recipe>();
-        this.loadRecipes();
+        this.index = loadIndex(context);
+        LOGGER.i("Loaded %d recipes with %d ingredients",
+                index.getRecipeCount(), index.getIngredientCount());
+        SubstitutionGraph substitutions = loadSubstitutions(context.getAssets());
+        index.setSubstitutions(substitutions);
+        this.version = ((long) index.getChecksum() << 32)
+                | (substitutions != null ? substitutions.getChecksum() & 0xffffffffL : 0);
+        this.session = new RecipeMatcher(index, new RecipeScorer.Coverage());
+        for (String ingredient : ingredients) {
+            session.add(ingredient);
+        }
     }
 
-    public RecipeBase() {
-        this(new ArrayList<String>());
+    public RecipeBase(Context context) {
+        this(context, new ArrayList<String>());
     }
 
     public void addIngredient(String ingredient) {
-        myIngredients.add(ingredient);
+        if (!myIngredients.contains(ingredient)) {
+            myIngredients.add(ingredient);
+            session.add(ingredient);
+        }
     }
 
-    private void loadRecipes() {
-        for (String line : lines) {
-            System.out.println(line);
-            recipeList.add(new Recipe(line));
+    // Adds an ingredient by its index id, as found through IngredientLabels. Returns false if it
+    // was already added; strings are only touched when it wasn't.
+    public boolean addIngredient(int ingredient) {
+        if (!session.add(ingredient)) {
+            return false;
         }
+        myIngredients.add(index.getIngredientName(ingredient));
+        return true;
+    }
+
+    public RecipeIndex getIndex() {
+        return index;
+    }
+
+    public void removeIngredient(String ingredient) {
+        if (myIngredients.remove(ingredient)) {
+            session.remove(ingredient);
+        }
+    }
+
+    // The k recipes covering the most of their ingredients, best first. Kept up to date as
+    // ingredients are added and removed, so this is cheap enough to call after every detection.
+    public ArrayList<Recipe> getRankedRecipes(int k) {
+        ArrayList<Recipe> results = new ArrayList<>();
+        session.getTop(k, matches);
+        for (int i = 0; i < matches.size(); i++) {
+            results.add(new Recipe(index, matches.getRecipe(i), session));
+        }
+        return results;
+    }
+
+    public String getStatString() {
+        return session.getStatString();
+    }
+
+    public static RecipeQueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    private RecipeIndex loadIndex(Context context) {
+        try {
+            return openIndex(context);
+        } catch (IOException e) {
+            LOGGER.w("No usable %s (%s), building the index from %s",
+                    INDEX_FILE, e.getMessage(), RECIPE_FILE);
+        }
+        RecipeIndexBuilder builder = new RecipeIndexBuilder();
+        readRecipes(context.getAssets(), builder);
+        readLabelIngredients(context.getAssets(), builder);
+        try {
+            return new RecipeIndex(builder.build());
+        } catch (IOException e) {
+            // The builder always writes a valid index.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Assets may be compressed inside the APK, so the index is copied out to the cache once and
+    // mapped from there. The copy is redone whenever the packaged header, which holds the
+    // checksum, no longer matches the cached one.
+    private RecipeIndex openIndex(Context context) throws IOException {
+        AssetManager assets = context.getAssets();
+        File cached = new File(context.getCacheDir(), INDEX_FILE);
+        byte[] header = readHeader(assets.open(INDEX_FILE));
+        if (!cached.exists() || !Arrays.equals(header, readHeader(new FileInputStream(cached)))) {
+            File tmp = new File(context.getCacheDir(), INDEX_FILE + ".tmp");
+            copy(assets.open(INDEX_FILE), tmp);
+            if (!RecipeIndex.open(tmp).verifyChecksum()) {
+                tmp.delete();
+                throw new IOException("Checksum mismatch in " + INDEX_FILE);
+            }
+            if (!tmp.renameTo(cached)) {
+                tmp.delete();
+                throw new IOException("Could not move " + INDEX_FILE + " into " + cached);
+            }
+            LOGGER.i("Copied %s to %s", INDEX_FILE, cached);
+        }
+        return RecipeIndex.open(cached);
+    }
+
+    private static byte[] readHeader(InputStream in) throws IOException {
+        try {
+            byte[] header = new byte[RecipeIndex.HEADER_SIZE];
+            int read = 0;
+            while (read < header.length) {
+                int n = in.read(header, read, header.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            return Arrays.copyOf(header, read);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void copy(InputStream in, File file) throws IOException {
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void readRecipes(AssetManager assets, RecipeIndexBuilder builder) {
+        CsvReader reader = null;
+        try {
+            reader = new CsvReader(new InputStreamReader(assets.open(RECIPE_FILE), "UTF-8"));
+            int skipped = builder.addRecipes(reader);
+            if (skipped > 0) {
+                LOGGER.w("Skipped %d malformed recipes", skipped);
+            }
+        } catch (IOException e) {
+            LOGGER.e(e, "Could not load recipes from %s", RECIPE_FILE);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    LOGGER.w("Could not close %s", RECIPE_FILE);
+                }
+            }
+        }
+    }
+
+    // Substitutes are optional; without them recipes only match exactly.
+    private SubstitutionGraph loadSubstitutions(AssetManager assets) {
+        CsvReader reader = null;
+        try {
+            reader = new CsvReader(new InputStreamReader(
+                    assets.open(SubstitutionGraph.SUBSTITUTE_FILE), "UTF-8"));
+            SubstitutionGraph graph = new SubstitutionGraph(reader, index);
+            LOGGER.i("Loaded %d substitutions, %d after closure, %d skipped as unknown",
+                    graph.getEdgeCount(), graph.getClosureCount(), graph.getSkippedCount());
+            return graph;
+        } catch (IOException e) {
+            LOGGER.w("No substitutions from %s: %s", SubstitutionGraph.SUBSTITUTE_FILE, e);
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    LOGGER.w("Could not close %s", SubstitutionGraph.SUBSTITUTE_FILE);
+                }
+            }
+        }
+    }
+
+    private void readLabelIngredients(AssetManager assets, RecipeIndexBuilder builder) {
+        CsvReader reader = null;
+        try {
+            reader = new CsvReader(new InputStreamReader(
+                    assets.open(IngredientLabels.INGREDIENT_FILE), "UTF-8"));
+            builder.addLabelIngredients(reader);
+        } catch (IOException e) {
+            LOGGER.e(e, "Could not load ingredients from %s", IngredientLabels.INGREDIENT_FILE);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    LOGGER.w("Could not close %s", IngredientLabels.INGREDIENT_FILE);
+                }
+            }
+        }
+    }
+
+    // Every recipe, with all of its ingredients listed as available.
+    public ArrayList<Recipe> getAllRecipes() {
+        ArrayList<Recipe> results = new ArrayList<>();
+        for (int recipe = 0; recipe < index.getRecipeCount(); recipe++) {
+            Recipe result = new Recipe(index.getName(recipe), index.getUrl(recipe));
+            for (int ingredient : index.getIngredients(recipe)) {
+                result.availableIngredients.add(index.getIngredientName(ingredient));
+            }
+            results.add(result);
+        }
+        return results;
     }
 
     public ArrayList<Recipe> getRecipes() {
         return getRecipes(this.myIngredients);
     }
 
+    // Only recipes sharing an ingredient with the query are looked at, so a recipe without any
+    // ingredients is never matched. Results are cached by the set of known ingredients.
     private ArrayList<Recipe> getRecipes(ArrayList<String> ingredients) {
-        ArrayList<Recipe> results = new ArrayList<>();
-        for (Recipe recipe : recipeList) {
-            Recipe t = recipe.compare(ingredients);
-            if (t.availableIngredients.size() >= t.unavailableIngredients.size())
-                results.add(t);
+        int[] ids = new int[ingredients.size()];
+        int count = 0;
+        for (String ingredient : ingredients) {
+            int id = index.getIngredientId(ingredient);
+            if (id >= 0) {
+                ids[count++] = id;
+            }
+        }
+        Arrays.sort(ids, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || ids[i] != ids[distinct - 1]) {
+                ids[distinct++] = ids[i];
+            }
+        }
+        ArrayList<Recipe> results = queryCache.get(version, ids, distinct);
+        if (results != null) {
+            return results;
         }
+
+        results = new ArrayList<>();
+        index.query(ingredients, matches);
+        for (int i = 0; i < matches.size(); i++) {
+            int recipe = matches.getRecipe(i);
+            int total = index.getIngredientSetSize(recipe);
+            // At least as many ingredients available as missing.
+            if (2 * matches.getHits(i) >= total)
+                results.add(new Recipe(index, recipe, null));
+        }
+        queryCache.put(version, ids, distinct, results);
         return results;
     }
 
-    public class Recipe {
+    // Holds only strings, so that cached recipes don't keep their RecipeBase alive.
+    public static class Recipe {
         String recipeName;
         ArrayList<String> availableIngredients = new ArrayList<String>();
         ArrayList<String> unavailableIngredients = new ArrayList<String>();
+        // Available ingredients that were matched by a substitute, as "substitute for ingredient".
+        ArrayList<String> substitutions = new ArrayList<String>();
         String recipeUrl;
 
-        public Recipe(String line) {
-            String[] list = line.split(",");
-            recipeName = list[0];
-            recipeUrl = list[1];
-            for (int i = 2; i < list.length; i++) {
-                availableIngredients.add(list[i]);
-            }
-        }
-
         public Recipe(String name, String url) {
             recipeName = name;
             recipeUrl = url;
         }
 
-        public Recipe compare(ArrayList<String> ingredients) {
-            Recipe result = new Recipe(recipeName, recipeUrl);
-            for (String a : availableIngredients) {
-                if (ingredients.contains(a))
-                    result.availableIngredients.add(a);
-                else
-                    result.unavailableIngredients.add(a);
+        // Splits an indexed recipe's ingredients by whether they are in the session, or without
+        // one, in the index's last query.
+        private Recipe(RecipeIndex index, int recipe, RecipeMatcher session) {
+            this(index.getName(recipe), index.getUrl(recipe));
+            for (int ingredient : index.getIngredients(recipe)) {
+                String name = index.getIngredientName(ingredient);
+                if (isFound(index, ingredient, session)) {
+                    availableIngredients.add(name);
+                } else if (isCovered(index, ingredient, session)) {
+                    availableIngredients.add(name);
+                    SubstitutionGraph graph = index.getSubstitutions();
+                    for (int i = 0; i < graph.getSubstituteCount(ingredient); i++) {
+                        int substitute = graph.getSubstitute(ingredient, i);
+                        if (isFound(index, substitute, session)) {
+                            substitutions.add(index.getIngredientName(substitute) + " for " + name);
+                            break;
+                        }
+                    }
+                } else {
+                    unavailableIngredients.add(name);
+                }
             }
-            return result;
+        }
+
+        private static boolean isFound(RecipeIndex index, int ingredient, RecipeMatcher session) {
+            return session != null ? session.contains(ingredient) : index.wasQueried(ingredient);
+        }
+
+        private static boolean isCovered(
+                RecipeIndex index, int ingredient, RecipeMatcher session) {
+            return session != null ? session.isCovered(ingredient) : index.isCovered(ingredient);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,819 @@
+package org.tensorflow.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+
+/**
+ * A read-only index of recipes by ingredient, queried in place from its binary form.
+ *
+ * <p>Recipes and ingredients are numbered densely. Each recipe's ingredient set is a bitset over
+ * ingredient ids, stored sparsely as only its non-zero 64-bit words so that large vocabularies
+ * stay compact. A query is turned into a dense bitset, and the number of a recipe's ingredients
+ * it covers is a word-wise AND and {@link Long#bitCount}.
+ *
+ * <p>Recipes to count are found one of two ways, whichever touches less memory: by walking the
+ * posting lists of the detected ingredients, which only visits recipes sharing at least one of
+ * them, or by scanning every recipe's words in one flat loop. Queries don't allocate once the
+ * scratch buffers have grown to fit. Not thread-safe.
+ *
+ * <p>{@link #queryTop} instead ranks recipes with a {@link RecipeScorer} and keeps only the best
+ * few. Posting lists are ordered by recipe size, so it visits candidates from the smallest up and
+ * stops as soon as the scorer's bound for larger recipes can no longer beat the worst kept one.
+ * Given a {@link ForkJoinPool}, queries of common ingredients on a large corpus, whose walk could
+ * cost more than scanning every recipe on every core, are scanned in parallel instead: recipe ids
+ * are cut into shards of {@link #SHARD_SIZE}, each shard keeps its own best few, and those are
+ * merged.
+ *
+ * <p>With a {@link SubstitutionGraph} set, each detected ingredient also stands for every
+ * ingredient it can replace. The query bitset is expanded by those before counting, so a
+ * substitute costs the same as an exact match and counts as a hit.
+ *
+ * <p>The binary form is written by {@link RecipeIndexBuilder}, usually at build time, and is
+ * normally memory-mapped with {@link #open(File)} so that nothing is parsed at runtime. It is
+ * little-endian: a {@link #HEADER_SIZE}-byte header, then each section back to back, longs
+ * first so that every section stays aligned.
+ *
+ * <pre>
+ *   int magic, version, crc32 of everything after the header, total length
+ *   int recipeCount, ingredientCount, wordCount, postingCount, recipeIngredientCount,
+ *       hashTableSize, stringBytes, reserved
+ *   long words[wordCount]                        bits within each 64-id block
+ *   int wordIndices[wordCount]                   which block each word covers
+ *   int wordStarts[recipeCount + 1]              each recipe's range of words
+ *   int setSizes[recipeCount]                    distinct ingredients per recipe
+ *   int postingStarts[ingredientCount + 1]       each ingredient's range of postings
+ *   int postings[postingCount]                   recipe ids, by setSize then id per ingredient
+ *   int recipeIngredientStarts[recipeCount + 1]  each recipe's range of recipeIngredients
+ *   int recipeIngredients[recipeIngredientCount] ingredient ids in recipe order
+ *   int hashTable[hashTableSize]                 ingredient id + 1 by name hash, 0 if empty
+ *   int stringStarts[ingredientCount + 2 * recipeCount + 1]
+ *   byte strings[stringBytes]                    UTF-8 ingredient names, recipe names, URLs
+ * </pre>
+ */
+public class RecipeIndex {
+    static final int MAGIC = 0x58444952; // "RIDX" in little-endian.
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 48;
+
+    /** Recipes ranked by one task of a parallel {@link #queryTop}. */
+    static final int SHARD_SIZE = 16384;
+    /** Smaller corpora are always ranked on the calling thread. */
+    static final int PARALLEL_MIN_RECIPES = 4 * SHARD_SIZE;
+    /** Walking one posting costs about as much as scanning this many recipes. */
+    private static final int POSTING_COST = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The recipes matched by one query, reused across queries. */
+    public static class Matches {
+        private int[] recipes = new int[INITIAL_CAPACITY];
+        private int[] hits = new int[INITIAL_CAPACITY];
+        private float[] scores = new float[INITIAL_CAPACITY];
+        private int size = 0;
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the id of the i-th matched recipe. Ids are in ascending order after {@link
+         * #query}, and best first after {@link #queryTop} and {@link RecipeMatcher#getTop}.
+         */
+        public int getRecipe(final int i) {
+            return recipes[i];
+        }
+
+        /** Returns how many of the i-th matched recipe's ingredients were detected. */
+        public int getHits(final int i) {
+            return hits[i];
+        }
+
+        /** Returns the score of the i-th matched recipe if it was ranked, 0 otherwise. */
+        public float getScore(final int i) {
+            return scores[i];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(final int recipe, final int hitCount, final float score) {
+            if (size == recipes.length) {
+                recipes = Arrays.copyOf(recipes, size * 2);
+                hits = Arrays.copyOf(hits, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            recipes[size] = recipe;
+            hits[size] = hitCount;
+            scores[size] = score;
+            ++size;
+        }
+    }
+
+    /** The best k recipes offered so far, as a min-heap on rank with the worst at the root. */
+    private static final class TopRecipes {
+        private int[] recipes = new int[INITIAL_CAPACITY];
+        private int[] hits = new int[INITIAL_CAPACITY];
+        private float[] scores = new float[INITIAL_CAPACITY];
+        private int size = 0;
+        private int capacity = 0;
+
+        /** Empties the heap and makes room for k recipes. */
+        void reset(final int k) {
+            size = 0;
+            capacity = k;
+            if (recipes.length < k) {
+                recipes = new int[k];
+                hits = new int[k];
+                scores = new float[k];
+            }
+        }
+
+        boolean isFull() {
+            return size == capacity;
+        }
+
+        /** Returns the score of the worst kept recipe. The heap must not be empty. */
+        float getWorstScore() {
+            return scores[0];
+        }
+
+        /** Keeps a recipe if there is room or it ranks before the worst kept one. */
+        void offer(final int recipe, final int hitCount, final float score) {
+            if (size < capacity) {
+                recipes[size] = recipe;
+                hits[size] = hitCount;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (ranksBefore(score, recipe, scores[0], recipes[0])) {
+                recipes[0] = recipe;
+                hits[0] = hitCount;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        /** Makes room for k recipes, keeping those already kept. */
+        void grow(final int k) {
+            capacity = Math.max(capacity, k);
+            if (recipes.length < k) {
+                recipes = Arrays.copyOf(recipes, k);
+                hits = Arrays.copyOf(hits, k);
+                scores = Arrays.copyOf(scores, k);
+            }
+        }
+
+        /** Offers every recipe kept by another heap. */
+        void offerAll(final TopRecipes other) {
+            for (int i = 0; i < other.size; ++i) {
+                offer(other.recipes[i], other.hits[i], other.scores[i]);
+            }
+        }
+
+        /** Moves the kept recipes into out, best first, replacing its contents. */
+        void drainTo(final Matches out) {
+            // Pop the worst first, filling the output from the back.
+            out.size = size;
+            if (out.recipes.length < size) {
+                out.recipes = new int[size];
+                out.hits = new int[size];
+                out.scores = new float[size];
+            }
+            while (size > 0) {
+                --size;
+                out.recipes[size] = recipes[0];
+                out.hits[size] = hits[0];
+                out.scores[size] = scores[0];
+                swap(0, size);
+                siftDown(0);
+            }
+        }
+
+        // The recipe ranking last is kept at the root.
+        private boolean ranksLast(final int i, final int j) {
+            return ranksBefore(scores[j], recipes[j], scores[i], recipes[i]);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                final int parent = (i - 1) / 2;
+                if (!ranksLast(i, parent)) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int last = i;
+                final int left = 2 * i + 1;
+                if (left < size && ranksLast(left, last)) {
+                    last = left;
+                }
+                if (left + 1 < size && ranksLast(left + 1, last)) {
+                    last = left + 1;
+                }
+                if (last == i) {
+                    return;
+                }
+                swap(i, last);
+                i = last;
+            }
+        }
+
+        private void swap(final int i, final int j) {
+            final int recipe = recipes[i];
+            recipes[i] = recipes[j];
+            recipes[j] = recipe;
+            final int hitCount = hits[i];
+            hits[i] = hits[j];
+            hits[j] = hitCount;
+            final float score = scores[i];
+            scores[i] = scores[j];
+            scores[j] = score;
+        }
+    }
+
+    private final ByteBuffer data;
+    private final int checksum;
+    private final int recipeCount;
+    private final int ingredientCount;
+    private final int wordCount;
+
+    private final LongBuffer words;
+    private final IntBuffer wordIndices;
+    private final IntBuffer wordStarts;
+    private final IntBuffer setSizes;
+    private final IntBuffer postingStarts;
+    private final IntBuffer postings;
+    private final IntBuffer recipeIngredientStarts;
+    private final IntBuffer recipeIngredients;
+    private final IntBuffer hashTable;
+    private final IntBuffer stringStarts;
+    private final int stringsOffset;
+
+    private SubstitutionGraph substitutions;
+
+    // The last query as a dense bitset over ingredient ids, expanded by substitutes, and which of
+    // its words are non-zero.
+    private final long[] queryWords;
+    private final int[] queryWordIndices;
+    private int queryWordCount = 0;
+    // The same ingredients as ids, in the order they were first seen.
+    private final int[] queryIngredients;
+    private int queryIngredientCount = 0;
+    // Only the detected ingredients, a subset of queryWords.
+    private final long[] exactWords;
+
+    // Query scratch for the posting list walk, over recipe ids. All clear between queries.
+    private final long[] visited;
+    private int[] touched = new int[INITIAL_CAPACITY];
+
+    // Query scratch for queryTop: a cursor per queried ingredient, and the kept recipes.
+    private final int[] cursors;
+    private final TopRecipes top = new TopRecipes();
+
+    /**
+     * Reads an index from its binary form without copying it.
+     *
+     * @throws IOException if the header is not that of a supported, complete index, or its
+     *     sections don't fit in the buffer.
+     */
+    public RecipeIndex(final ByteBuffer buffer) throws IOException {
+        data = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        data.position(0);
+        if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a recipe index");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IOException("Unsupported recipe index version " + data.getInt(4));
+        }
+        if (data.getInt(12) != data.capacity()) {
+            throw new IOException("Truncated recipe index: "
+                    + data.capacity() + " of " + data.getInt(12) + " bytes");
+        }
+        checksum = data.getInt(8);
+        recipeCount = data.getInt(16);
+        ingredientCount = data.getInt(20);
+        wordCount = data.getInt(24);
+        final int postingCount = data.getInt(28);
+        final int recipeIngredientCount = data.getInt(32);
+        final int hashTableSize = data.getInt(36);
+        final int stringBytes = data.getInt(40);
+        // The counts are outside the checksum, so check that the sections, which are back to back,
+        // exactly fill the buffer before slicing it.
+        final long end = HEADER_SIZE
+                + 8L * wordCount
+                + 4L * wordCount
+                + 4L * ((long) recipeCount + 1)
+                + 4L * recipeCount
+                + 4L * ((long) ingredientCount + 1)
+                + 4L * postingCount
+                + 4L * ((long) recipeCount + 1)
+                + 4L * recipeIngredientCount
+                + 4L * hashTableSize
+                + 4L * ((long) ingredientCount + 2L * recipeCount + 1)
+                + stringBytes;
+        if (recipeCount < 0 || ingredientCount < 0 || wordCount < 0 || postingCount < 0
+                || recipeIngredientCount < 0 || stringBytes < 0 || hashTableSize <= 0
+                || (hashTableSize & (hashTableSize - 1)) != 0
+                || end != data.capacity()) {
+            throw new IOException("Corrupt recipe index");
+        }
+
+        int offset = HEADER_SIZE;
+        words = longs(offset, wordCount);
+        offset += 8 * wordCount;
+        wordIndices = ints(offset, wordCount);
+        offset += 4 * wordCount;
+        wordStarts = ints(offset, recipeCount + 1);
+        offset += 4 * (recipeCount + 1);
+        setSizes = ints(offset, recipeCount);
+        offset += 4 * recipeCount;
+        postingStarts = ints(offset, ingredientCount + 1);
+        offset += 4 * (ingredientCount + 1);
+        postings = ints(offset, postingCount);
+        offset += 4 * postingCount;
+        recipeIngredientStarts = ints(offset, recipeCount + 1);
+        offset += 4 * (recipeCount + 1);
+        recipeIngredients = ints(offset, recipeIngredientCount);
+        offset += 4 * recipeIngredientCount;
+        hashTable = ints(offset, hashTableSize);
+        offset += 4 * hashTableSize;
+        stringStarts = ints(offset, ingredientCount + 2 * recipeCount + 1);
+        offset += 4 * (ingredientCount + 2 * recipeCount + 1);
+        stringsOffset = offset;
+
+        queryWords = new long[(ingredientCount + 63) / 64];
+        queryWordIndices = new int[queryWords.length];
+        exactWords = new long[queryWords.length];
+        visited = new long[(recipeCount + 63) / 64];
+        queryIngredients = new int[ingredientCount];
+        cursors = new int[ingredientCount];
+    }
+
+    /** Memory-maps an index file. The file must not change while the index is in use. */
+    public static RecipeIndex open(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the file is closed.
+            return new RecipeIndex(
+                    raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Returns whether the data after the header matches the checksum in the header. */
+    public boolean verifyChecksum() {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer body = data.duplicate();
+        body.position(HEADER_SIZE);
+        final byte[] chunk = new byte[8192];
+        while (body.hasRemaining()) {
+            final int length = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return (int) crc.getValue() == checksum;
+    }
+
+    /** Returns the CRC32 of the index contents, which changes whenever the corpus does. */
+    public int getChecksum() {
+        return checksum;
+    }
+
+    public int getRecipeCount() {
+        return recipeCount;
+    }
+
+    public String getName(final int recipe) {
+        return getString(ingredientCount + recipe);
+    }
+
+    public String getUrl(final int recipe) {
+        return getString(ingredientCount + recipeCount + recipe);
+    }
+
+    /** Returns the ingredient ids of a recipe, in recipe order, as a new array. */
+    public int[] getIngredients(final int recipe) {
+        final int start = recipeIngredientStarts.get(recipe);
+        final int[] ids = new int[recipeIngredientStarts.get(recipe + 1) - start];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = recipeIngredients.get(start + i);
+        }
+        return ids;
+    }
+
+    /** Returns the number of distinct ingredients of a recipe. */
+    public int getIngredientSetSize(final int recipe) {
+        return setSizes.get(recipe);
+    }
+
+    /**
+     * Copies the distinct ingredient ids of a recipe, ascending, without allocating.
+     *
+     * @param ids Receives the ids. Must hold at least {@link #getIngredientSetSize} of them.
+     * @return The number of ids copied.
+     */
+    public int getIngredientSet(final int recipe, final int[] ids) {
+        int count = 0;
+        final int end = wordStarts.get(recipe + 1);
+        for (int i = wordStarts.get(recipe); i < end; ++i) {
+            long bits = words.get(i);
+            while (bits != 0) {
+                ids[count++] = (wordIndices.get(i) << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return count;
+    }
+
+    /** Returns the number of recipes using an ingredient. */
+    public int getRecipeCount(final int ingredient) {
+        return postingStarts.get(ingredient + 1) - postingStarts.get(ingredient);
+    }
+
+    /**
+     * Returns the i-th recipe using an ingredient, for i below {@link #getRecipeCount(int)}.
+     * Recipes are ordered by their number of ingredients, then by id.
+     */
+    public int getPosting(final int ingredient, final int i) {
+        return postings.get(postingStarts.get(ingredient) + i);
+    }
+
+    public int getIngredientCount() {
+        return ingredientCount;
+    }
+
+    public String getIngredientName(final int ingredient) {
+        return getString(ingredient);
+    }
+
+    /** Returns the id of an ingredient, or -1 if it is not in the index. */
+    public int getIngredientId(final String name) {
+        final byte[] bytes = name.getBytes(UTF_8);
+        final int mask = hashTable.capacity() - 1;
+        for (int slot = hash(bytes, bytes.length) & mask; ; slot = (slot + 1) & mask) {
+            final int entry = hashTable.get(slot);
+            if (entry == 0) {
+                return -1;
+            }
+            if (stringEquals(entry - 1, bytes)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Sets the substitutions that later queries are expanded by, or null to only match exactly.
+     * The graph must have been loaded against this index.
+     */
+    public void setSubstitutions(final SubstitutionGraph substitutions) {
+        this.substitutions = substitutions;
+    }
+
+    public SubstitutionGraph getSubstitutions() {
+        return substitutions;
+    }
+
+    /** Returns whether an ingredient was among those detected in the last query. */
+    public boolean wasQueried(final int ingredient) {
+        return (exactWords[ingredient >>> 6] & (1L << ingredient)) != 0;
+    }
+
+    /** Returns whether an ingredient was detected or can be replaced by one in the last query. */
+    public boolean isCovered(final int ingredient) {
+        return (queryWords[ingredient >>> 6] & (1L << ingredient)) != 0;
+    }
+
+    /**
+     * Finds every recipe using at least one of the detected ingredients.
+     *
+     * @param detectedIngredients The detected ingredient names. Unknown names and duplicates are
+     *     ignored.
+     * @param out Receives the matched recipes and their hit counts, replacing its contents.
+     */
+    public void query(final Collection<String> detectedIngredients, final Matches out) {
+        out.size = 0;
+        final long postingCost = setQuery(detectedIngredients);
+        if (queryIngredientCount == 0) {
+            return;
+        }
+
+        if (postingCost < wordCount) {
+            queryPostings(out);
+        } else {
+            scan(out);
+        }
+    }
+
+    /**
+     * Finds the best-scoring recipes using at least one of the detected ingredients.
+     *
+     * <p>Candidates are drawn from the queried posting lists in order of recipe size, so a
+     * candidate not yet seen has at least as many ingredients as the smallest one at the lists'
+     * heads. The search ends once {@code scorer.bound} of that size is below the k-th best score.
+     *
+     * @param detectedIngredients The detected ingredient names. Unknown names and duplicates are
+     *     ignored.
+     * @param k The maximum number of recipes to return.
+     * @param scorer Ranks the recipes. Higher scores rank first, and ties go to the lower id.
+     * @param out Receives the best recipes, best first, replacing its contents.
+     */
+    public void queryTop(
+            final Collection<String> detectedIngredients,
+            final int k,
+            final RecipeScorer scorer,
+            final Matches out) {
+        queryTop(detectedIngredients, k, scorer, null, out);
+    }
+
+    /**
+     * As {@link #queryTop(Collection, int, RecipeScorer, Matches)}, but scans the corpus in
+     * parallel shards on {@code pool} when walking the queried posting lists to the end would
+     * cost more, if the corpus has at least {@link #PARALLEL_MIN_RECIPES} recipes. The results are
+     * the same either way. The calling thread waits for the shards, and the index must not be
+     * used by another thread meanwhile.
+     *
+     * @param pool Runs the shards, or null to always rank on the calling thread.
+     */
+    public void queryTop(
+            final Collection<String> detectedIngredients,
+            final int k,
+            final RecipeScorer scorer,
+            final ForkJoinPool pool,
+            final Matches out) {
+        out.size = 0;
+        final long postingCost = setQuery(detectedIngredients);
+        if (queryIngredientCount == 0 || k <= 0) {
+            return;
+        }
+        scorer.prepare(this, queryIngredients, queryIngredientCount);
+        // The walk usually stops well before the end of its lists, so this errs towards it.
+        if (pool != null
+                && recipeCount >= PARALLEL_MIN_RECIPES
+                && postingCost * POSTING_COST >= recipeCount / pool.getParallelism()) {
+            pool.invoke(new RankTask(0, recipeCount, k, scorer)).drainTo(out);
+            return;
+        }
+        top.reset(Math.min(k, recipeCount));
+        for (int i = 0; i < queryIngredientCount; ++i) {
+            cursors[i] = postingStarts.get(queryIngredients[i]);
+        }
+
+        int touchedCount = 0;
+        while (true) {
+            // Few ingredients are detected at once, so a linear pick of the smallest head is
+            // cheaper than keeping the cursors in a heap.
+            int next = -1;
+            int nextSize = Integer.MAX_VALUE;
+            for (int i = 0; i < queryIngredientCount; ++i) {
+                if (cursors[i] < postingStarts.get(queryIngredients[i] + 1)) {
+                    final int size = setSizes.get(postings.get(cursors[i]));
+                    if (size < nextSize) {
+                        next = i;
+                        nextSize = size;
+                    }
+                }
+            }
+            if (next < 0 || (top.isFull() && scorer.bound(nextSize) < top.getWorstScore())) {
+                break;
+            }
+
+            final int recipe = postings.get(cursors[next]++);
+            final long mask = 1L << recipe;
+            if ((visited[recipe >>> 6] & mask) != 0) {
+                continue;
+            }
+            visited[recipe >>> 6] |= mask;
+            if (touchedCount == touched.length) {
+                touched = Arrays.copyOf(touched, touchedCount * 2);
+            }
+            touched[touchedCount++] = recipe;
+
+            final int hits = countHits(recipe);
+            top.offer(recipe, hits, scorer.score(this, recipe, hits));
+        }
+
+        for (int i = 0; i < touchedCount; ++i) {
+            visited[touched[i] >>> 6] = 0;
+        }
+        top.drainTo(out);
+    }
+
+    /**
+     * Ranks a range of recipe ids by scanning them, splitting it into halves on shard boundaries
+     * until each task has one shard. Reads only state that is fixed for the whole query.
+     */
+    private final class RankTask extends RecursiveTask<TopRecipes> {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final int k;
+        private final RecipeScorer scorer;
+
+        RankTask(final int start, final int end, final int k, final RecipeScorer scorer) {
+            this.start = start;
+            this.end = end;
+            this.k = k;
+            this.scorer = scorer;
+        }
+
+        @Override
+        protected TopRecipes compute() {
+            final int shards = (end - start + SHARD_SIZE - 1) / SHARD_SIZE;
+            if (shards > 1) {
+                final int middle = start + shards / 2 * SHARD_SIZE;
+                final RankTask left = new RankTask(start, middle, k, scorer);
+                left.fork();
+                final TopRecipes merged = new RankTask(middle, end, k, scorer).compute();
+                merged.grow(Math.min(k, end - start));
+                merged.offerAll(left.join());
+                return merged;
+            }
+
+            final TopRecipes shard = new TopRecipes();
+            shard.reset(Math.min(k, end - start));
+            for (int recipe = start; recipe < end; ++recipe) {
+                // Once the shard is full, most recipes are ruled out by their size alone.
+                if (shard.isFull() && scorer.bound(setSizes.get(recipe)) < shard.getWorstScore()) {
+                    continue;
+                }
+                final int hits = countHits(recipe);
+                if (hits > 0) {
+                    shard.offer(recipe, hits, scorer.score(RecipeIndex.this, recipe, hits));
+                }
+            }
+            return shard;
+        }
+    }
+
+    /**
+     * Makes the detected ingredients, and those they can replace, the current query. Returns the
+     * total posting count of the expanded query.
+     */
+    private long setQuery(final Collection<String> detectedIngredients) {
+        for (int i = 0; i < queryWordCount; ++i) {
+            queryWords[queryWordIndices[i]] = 0;
+            exactWords[queryWordIndices[i]] = 0;
+        }
+        queryWordCount = 0;
+        queryIngredientCount = 0;
+
+        long postingCost = 0;
+        for (final String name : detectedIngredients) {
+            final int ingredient = getIngredientId(name);
+            if (ingredient < 0 || wasQueried(ingredient)) {
+                continue;
+            }
+            exactWords[ingredient >>> 6] |= 1L << ingredient;
+            final int coverCount =
+                    substitutions != null ? substitutions.getCoverCount(ingredient) : 1;
+            for (int i = 0; i < coverCount; ++i) {
+                final int covered =
+                        substitutions != null ? substitutions.getCover(ingredient, i) : ingredient;
+                if (isCovered(covered)) {
+                    continue;
+                }
+                final int block = covered >>> 6;
+                if (queryWords[block] == 0) {
+                    queryWordIndices[queryWordCount++] = block;
+                }
+                queryWords[block] |= 1L << covered;
+                queryIngredients[queryIngredientCount++] = covered;
+                postingCost += getRecipeCount(covered);
+            }
+        }
+        return postingCost;
+    }
+
+    /** Counts the ingredients of a recipe that are covered by the last query. */
+    private int countHits(final int recipe) {
+        int hits = 0;
+        final int end = wordStarts.get(recipe + 1);
+        for (int i = wordStarts.get(recipe); i < end; ++i) {
+            hits += Long.bitCount(words.get(i) & queryWords[wordIndices.get(i)]);
+        }
+        return hits;
+    }
+
+    /** Counts the recipes reachable from the queried ingredients' posting lists. */
+    private void queryPostings(final Matches out) {
+        int touchedCount = 0;
+        for (int q = 0; q < queryWordCount; ++q) {
+            final int block = queryWordIndices[q];
+            long bits = queryWords[block];
+            while (bits != 0) {
+                final int ingredient = (block << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                final int end = postingStarts.get(ingredient + 1);
+                for (int i = postingStarts.get(ingredient); i < end; ++i) {
+                    final int recipe = postings.get(i);
+                    final long mask = 1L << recipe;
+                    if ((visited[recipe >>> 6] & mask) == 0) {
+                        visited[recipe >>> 6] |= mask;
+                        if (touchedCount == touched.length) {
+                            touched = Arrays.copyOf(touched, touchedCount * 2);
+                        }
+                        touched[touchedCount++] = recipe;
+                    }
+                }
+            }
+        }
+
+        // Recipe ids come out grouped by ingredient; sort them back into corpus order.
+        Arrays.sort(touched, 0, touchedCount);
+        for (int i = 0; i < touchedCount; ++i) {
+            final int recipe = touched[i];
+            visited[recipe >>> 6] = 0;
+            out.add(recipe, countHits(recipe), 0);
+        }
+    }
+
+    /** Counts every recipe's hits in one pass over all recipe words. */
+    private void scan(final Matches out) {
+        for (int recipe = 0; recipe < recipeCount; ++recipe) {
+            final int hits = countHits(recipe);
+            if (hits > 0) {
+                out.add(recipe, hits, 0);
+            }
+        }
+    }
+
+    /** Whether a recipe ranks before another: a higher score, or the lower id on a tie. */
+    static boolean ranksBefore(
+            final float score, final int recipe, final float otherScore, final int otherRecipe) {
+        return score > otherScore || (score == otherScore && recipe < otherRecipe);
+    }
+
+    private String getString(final int index) {
+        final int start = stringStarts.get(index);
+        final byte[] bytes = new byte[stringStarts.get(index + 1) - start];
+        final ByteBuffer string = data.duplicate();
+        string.position(stringsOffset + start);
+        string.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private boolean stringEquals(final int index, final byte[] bytes) {
+        final int start = stringStarts.get(index);
+        if (stringStarts.get(index + 1) - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; ++i) {
+            if (data.get(stringsOffset + start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private IntBuffer ints(final int offset, final int count) {
+        final ByteBuffer section = data.duplicate();
+        section.position(offset);
+        section.limit(offset + 4 * count);
+        return section.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    private LongBuffer longs(final int offset, final int count) {
+        final ByteBuffer section = data.duplicate();
+        section.position(offset);
+        section.limit(offset + 8 * count);
+        return section.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    }
+
+    /** Returns the size of the ingredient hash table: a power of two at most half full. */
+    static int hashTableSize(final int ingredientCount) {
+        int size = 2;
+        while (size < 2 * ingredientCount) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    /** FNV-1a over a name's UTF-8 bytes. */
+    static int hash(final byte[] bytes, final int length) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < length; ++i) {
+            hash = (hash ^ (bytes[i] & 0xff)) * 0x01000193;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,336 @@
+package org.tensorflow.demo;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.tensorflow.demo.env.CsvReader;
+
+/**
+ * Collects recipes and serializes them into the binary format read by {@link RecipeIndex}.
+ *
+ * <p>Runs at build time to turn assets/recipes.csv into assets/recipes.idx, and on the device
+ * as a fallback when no prebuilt index is packaged. The canonical ingredients of
+ * assets/label_ingredients.csv are added too, so that every ingredient the classifier can report
+ * has an id even if no recipe uses it yet. Has no Android dependencies.
+ */
+public class RecipeIndexBuilder {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ArrayList<String> names = new ArrayList<>();
+    private final ArrayList<String> urls = new ArrayList<>();
+    private final ArrayList<int[]> recipeIngredients = new ArrayList<>();
+    private int recipeIngredientCount = 0;
+
+    private final HashMap<String, Integer> ingredientIds = new HashMap<>();
+    private final ArrayList<String> ingredientNames = new ArrayList<>();
+    // Recipe ids per ingredient id, ascending, with only the first postingSizes[id] valid.
+    private int[][] postings = new int[INITIAL_CAPACITY][];
+    private int[] postingSizes = new int[INITIAL_CAPACITY];
+    private int postingCount = 0;
+
+    // Recipe bitsets, laid out as in RecipeIndex.
+    private int[] wordStarts = new int[INITIAL_CAPACITY + 1];
+    private int[] wordIndices = new int[INITIAL_CAPACITY];
+    private long[] words = new long[INITIAL_CAPACITY];
+    private int wordCount = 0;
+    private int[] setSizes = new int[INITIAL_CAPACITY];
+
+    /** Adds a recipe and returns its id. Repeated ingredients are only counted once. */
+    public int addRecipe(final String name, final String url, final List<String> ingredients) {
+        final int recipe = names.size();
+        names.add(name);
+        urls.add(url);
+
+        final int[] ids = new int[ingredients.size()];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = internIngredient(ingredients.get(i));
+        }
+        recipeIngredients.add(ids);
+        recipeIngredientCount += ids.length;
+
+        final int[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        if (recipe >= setSizes.length) {
+            setSizes = Arrays.copyOf(setSizes, setSizes.length * 2);
+            wordStarts = Arrays.copyOf(wordStarts, setSizes.length + 1);
+        }
+        wordStarts[recipe] = wordCount;
+        for (int i = 0; i < sorted.length; ++i) {
+            if (i > 0 && sorted[i] == sorted[i - 1]) {
+                continue;
+            }
+            addPosting(sorted[i], recipe);
+            ++setSizes[recipe];
+            final int block = sorted[i] >>> 6;
+            if (wordCount == wordStarts[recipe] || wordIndices[wordCount - 1] != block) {
+                if (wordCount == words.length) {
+                    words = Arrays.copyOf(words, wordCount * 2);
+                    wordIndices = Arrays.copyOf(wordIndices, wordCount * 2);
+                }
+                wordIndices[wordCount] = block;
+                words[wordCount] = 0;
+                ++wordCount;
+            }
+            words[wordCount - 1] |= 1L << sorted[i];
+        }
+        wordStarts[recipe + 1] = wordCount;
+        return recipe;
+    }
+
+    /**
+     * Adds every recipe from CSV records of the form name,url,ingredient,... in a single pass.
+     *
+     * @return The number of records skipped for having fewer than two fields.
+     */
+    public int addRecipes(final CsvReader reader) throws IOException {
+        final ArrayList<String> fields = new ArrayList<>();
+        int skipped = 0;
+        while (reader.readRecord(fields)) {
+            if (fields.size() < 2) {
+                ++skipped;
+                continue;
+            }
+            addRecipe(fields.get(0), fields.get(1), fields.subList(2, fields.size()));
+        }
+        return skipped;
+    }
+
+    /** Adds an ingredient no recipe may use, and returns its id. */
+    public int addIngredient(final String name) {
+        return internIngredient(name);
+    }
+
+    /**
+     * Adds the canonical ingredient of every record of the form label,ingredient.
+     *
+     * @return The number of records skipped for having fewer than two fields.
+     */
+    public int addLabelIngredients(final CsvReader reader) throws IOException {
+        final ArrayList<String> fields = new ArrayList<>();
+        int skipped = 0;
+        while (reader.readRecord(fields)) {
+            if (fields.size() < 2) {
+                ++skipped;
+                continue;
+            }
+            internIngredient(fields.get(1));
+        }
+        return skipped;
+    }
+
+    public int getRecipeCount() {
+        return names.size();
+    }
+
+    /** Serializes the recipes added so far, checksum included. */
+    public ByteBuffer build() {
+        final int recipeCount = names.size();
+        final int ingredientCount = ingredientNames.size();
+        final int hashTableSize = RecipeIndex.hashTableSize(ingredientCount);
+
+        final byte[][] strings = new byte[ingredientCount + 2 * recipeCount][];
+        int stringBytes = 0;
+        for (int i = 0; i < strings.length; ++i) {
+            final String string;
+            if (i < ingredientCount) {
+                string = ingredientNames.get(i);
+            } else if (i < ingredientCount + recipeCount) {
+                string = names.get(i - ingredientCount);
+            } else {
+                string = urls.get(i - ingredientCount - recipeCount);
+            }
+            strings[i] = string.getBytes(UTF_8);
+            stringBytes += strings[i].length;
+        }
+
+        final long length =
+                RecipeIndex.HEADER_SIZE
+                        + 8L * wordCount
+                        + 4L * (wordCount
+                                + (recipeCount + 1)
+                                + recipeCount
+                                + (ingredientCount + 1)
+                                + postingCount
+                                + (recipeCount + 1)
+                                + recipeIngredientCount
+                                + hashTableSize
+                                + (strings.length + 1))
+                        + stringBytes;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Recipe index too large: " + length + " bytes");
+        }
+        final ByteBuffer out = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+
+        out.position(RecipeIndex.HEADER_SIZE);
+        for (int i = 0; i < wordCount; ++i) {
+            out.putLong(words[i]);
+        }
+        putInts(out, wordIndices, wordCount);
+        putInts(out, wordStarts, recipeCount + 1);
+        putInts(out, setSizes, recipeCount);
+
+        int start = 0;
+        for (int i = 0; i < ingredientCount; ++i) {
+            out.putInt(start);
+            start += postingSizes[i];
+        }
+        out.putInt(start);
+        long[] keys = new long[INITIAL_CAPACITY];
+        for (int i = 0; i < ingredientCount; ++i) {
+            // Smallest recipes first, for RecipeIndex.queryTop; ties stay in id order.
+            final int size = postingSizes[i];
+            if (keys.length < size) {
+                keys = new long[Math.max(size, keys.length * 2)];
+            }
+            for (int j = 0; j < size; ++j) {
+                keys[j] = ((long) setSizes[postings[i][j]] << 32) | postings[i][j];
+            }
+            Arrays.sort(keys, 0, size);
+            for (int j = 0; j < size; ++j) {
+                out.putInt((int) keys[j]);
+            }
+        }
+
+        start = 0;
+        for (final int[] ids : recipeIngredients) {
+            out.putInt(start);
+            start += ids.length;
+        }
+        out.putInt(start);
+        for (final int[] ids : recipeIngredients) {
+            putInts(out, ids, ids.length);
+        }
+
+        final int[] hashTable = new int[hashTableSize];
+        for (int i = 0; i < ingredientCount; ++i) {
+            int slot = RecipeIndex.hash(strings[i], strings[i].length) & (hashTableSize - 1);
+            while (hashTable[slot] != 0) {
+                slot = (slot + 1) & (hashTableSize - 1);
+            }
+            hashTable[slot] = i + 1;
+        }
+        putInts(out, hashTable, hashTableSize);
+
+        start = 0;
+        for (final byte[] string : strings) {
+            out.putInt(start);
+            start += string.length;
+        }
+        out.putInt(start);
+        for (final byte[] string : strings) {
+            out.put(string);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(out.array(), RecipeIndex.HEADER_SIZE, out.capacity() - RecipeIndex.HEADER_SIZE);
+        out.position(0);
+        out.putInt(RecipeIndex.MAGIC);
+        out.putInt(RecipeIndex.VERSION);
+        out.putInt((int) crc.getValue());
+        out.putInt((int) length);
+        out.putInt(recipeCount);
+        out.putInt(ingredientCount);
+        out.putInt(wordCount);
+        out.putInt(postingCount);
+        out.putInt(recipeIngredientCount);
+        out.putInt(hashTableSize);
+        out.putInt(stringBytes);
+        out.putInt(0);
+        out.position(0);
+        return out;
+    }
+
+    /** Serializes the recipes added so far to a stream. */
+    public void writeTo(final OutputStream out) throws IOException {
+        final ByteBuffer buffer = build();
+        out.write(buffer.array(), 0, buffer.capacity());
+    }
+
+    /**
+     * Builds a binary index from a recipe CSV and, optionally, a label to ingredient CSV.
+     * Usage: RecipeIndexBuilder recipes.csv recipes.idx [label_ingredients.csv]
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.err.println(
+                    "Usage: RecipeIndexBuilder <recipes.csv> <recipes.idx> [label_ingredients.csv]");
+            System.exit(2);
+        }
+        final RecipeIndexBuilder builder = new RecipeIndexBuilder();
+        CsvReader reader =
+                new CsvReader(new InputStreamReader(new FileInputStream(args[0]), UTF_8));
+        int skipped;
+        try {
+            skipped = builder.addRecipes(reader);
+        } finally {
+            reader.close();
+        }
+        if (skipped > 0) {
+            System.err.println("Skipped " + skipped + " malformed recipes in " + args[0]);
+        }
+        if (args.length == 3) {
+            reader = new CsvReader(new InputStreamReader(new FileInputStream(args[2]), UTF_8));
+            try {
+                skipped = builder.addLabelIngredients(reader);
+            } finally {
+                reader.close();
+            }
+            if (skipped > 0) {
+                System.err.println("Skipped " + skipped + " malformed labels in " + args[2]);
+            }
+        }
+
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]));
+        try {
+            builder.writeTo(out);
+        } finally {
+            out.close();
+        }
+        System.out.println("Wrote " + builder.getRecipeCount() + " recipes to " + args[1]);
+    }
+
+    private int internIngredient(final String name) {
+        final Integer existing = ingredientIds.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        final int id = ingredientNames.size();
+        ingredientIds.put(name, id);
+        ingredientNames.add(name);
+        if (postings.length <= id) {
+            postings = Arrays.copyOf(postings, postings.length * 2);
+            postingSizes = Arrays.copyOf(postingSizes, postingSizes.length * 2);
+        }
+        postings[id] = new int[4];
+        return id;
+    }
+
+    private void addPosting(final int ingredient, final int recipe) {
+        int[] posting = postings[ingredient];
+        if (postingSizes[ingredient] == posting.length) {
+            posting = Arrays.copyOf(posting, posting.length * 2);
+            postings[ingredient] = posting;
+        }
+        posting[postingSizes[ingredient]++] = recipe;
+        ++postingCount;
+    }
+
+    private static void putInts(final ByteBuffer out, final int[] values, final int count) {
+        for (int i = 0; i < count; ++i) {
+            out.putInt(values[i]);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package org.tensorflow.demo;
+
+/**
+ * A recipe query that changes one ingredient at a time, such as the ingredients found so far by
+ * the camera.
+ *
+ * <p>The session keeps every recipe's hit count and score, and the recipes with at least one hit
+ * in a heap ranked by score. Adding or removing an ingredient only walks that ingredient's
+ * posting list, updating each recipe on it, so the cost of a change doesn't grow with the size
+ * of the corpus and reading the best few recipes doesn't depend on it at all. This relies on the
+ * scorer's rule that a recipe's score only depends on its own queried ingredients.
+ *
+ * <p>If the index has a {@link SubstitutionGraph}, an added ingredient also covers every
+ * ingredient it can replace. Covered ingredients are reference counted, so a posting list is
+ * only walked when an ingredient becomes covered or stops being covered.
+ *
+ * <p>Uses four ints per recipe of memory. Not thread-safe.
+ */
+public class RecipeMatcher {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final RecipeIndex index;
+    private final RecipeScorer scorer;
+    private final SubstitutionGraph substitutions;
+
+    // The added ingredients as a bitset, and how many there are.
+    private final long[] queried;
+    private int ingredientCount = 0;
+    // The covered ingredient ids, which the scorer sees as the query, and how many added
+    // ingredients cover each one.
+    private final int[] covered;
+    private int coveredCount = 0;
+    private final int[] coverCounts;
+    // Scratch for the ingredients a change covers or uncovers.
+    private final int[] changed;
+
+    // Per recipe, valid while it has at least one hit.
+    private final int[] hits;
+    private final float[] scores;
+    // Matched recipes as a max-heap on rank, and each recipe's heap position plus one, or 0.
+    private final int[] heap;
+    private final int[] positions;
+    private int size = 0;
+
+    // Scratch for getTop: heap positions still to be visited, as a max-heap on rank.
+    private int[] frontier = new int[INITIAL_CAPACITY];
+
+    private long lastUpdateNs = 0;
+
+    public RecipeMatcher(final RecipeIndex index, final RecipeScorer scorer) {
+        this.index = index;
+        this.scorer = scorer;
+        this.substitutions = index.getSubstitutions();
+        queried = new long[(index.getIngredientCount() + 63) / 64];
+        covered = new int[index.getIngredientCount()];
+        coverCounts = new int[index.getIngredientCount()];
+        changed = new int[index.getIngredientCount()];
+        hits = new int[index.getRecipeCount()];
+        scores = new float[index.getRecipeCount()];
+        heap = new int[index.getRecipeCount()];
+        positions = new int[index.getRecipeCount()];
+    }
+
+    /** Adds an ingredient by name. Returns false if no recipe uses it or it is already queried. */
+    public boolean add(final String ingredient) {
+        final int id = index.getIngredientId(ingredient);
+        return id >= 0 && add(id);
+    }
+
+    /** Removes an ingredient by name. Returns false if it was not queried. */
+    public boolean remove(final String ingredient) {
+        final int id = index.getIngredientId(ingredient);
+        return id >= 0 && remove(id);
+    }
+
+    /** Adds an ingredient by id. Returns false if it is already queried. */
+    public boolean add(final int ingredient) {
+        if (contains(ingredient)) {
+            return false;
+        }
+        final long start = System.nanoTime();
+        queried[ingredient >>> 6] |= 1L << ingredient;
+        ++ingredientCount;
+        int changedCount = 0;
+        for (int i = 0; i < getCoverCount(ingredient); ++i) {
+            final int cover = getCover(ingredient, i);
+            if (coverCounts[cover]++ == 0) {
+                covered[coveredCount++] = cover;
+                changed[changedCount++] = cover;
+            }
+        }
+        scorer.prepare(index, covered, coveredCount);
+
+        for (int c = 0; c < changedCount; ++c) {
+            final int count = index.getRecipeCount(changed[c]);
+            for (int i = 0; i < count; ++i) {
+                final int recipe = index.getPosting(changed[c], i);
+                ++hits[recipe];
+                scores[recipe] = scorer.score(index, recipe, hits[recipe]);
+                if (positions[recipe] == 0) {
+                    heap[size] = recipe;
+                    positions[recipe] = ++size;
+                    siftUp(size - 1);
+                } else {
+                    update(positions[recipe] - 1);
+                }
+            }
+        }
+        lastUpdateNs = System.nanoTime() - start;
+        return true;
+    }
+
+    /** Removes an ingredient by id. Returns false if it was not queried. */
+    public boolean remove(final int ingredient) {
+        if (!contains(ingredient)) {
+            return false;
+        }
+        final long start = System.nanoTime();
+        queried[ingredient >>> 6] &= ~(1L << ingredient);
+        --ingredientCount;
+        int changedCount = 0;
+        for (int i = 0; i < getCoverCount(ingredient); ++i) {
+            final int cover = getCover(ingredient, i);
+            if (--coverCounts[cover] == 0) {
+                int j = 0;
+                while (covered[j] != cover) {
+                    ++j;
+                }
+                covered[j] = covered[--coveredCount];
+                changed[changedCount++] = cover;
+            }
+        }
+        scorer.prepare(index, covered, coveredCount);
+
+        for (int c = 0; c < changedCount; ++c) {
+            final int count = index.getRecipeCount(changed[c]);
+            for (int i = 0; i < count; ++i) {
+                final int recipe = index.getPosting(changed[c], i);
+                if (--hits[recipe] == 0) {
+                    removeAt(positions[recipe] - 1);
+                } else {
+                    scores[recipe] = scorer.score(index, recipe, hits[recipe]);
+                    update(positions[recipe] - 1);
+                }
+            }
+        }
+        lastUpdateNs = System.nanoTime() - start;
+        return true;
+    }
+
+    /** Removes every ingredient. */
+    public void clear() {
+        for (int i = 0; i < size; ++i) {
+            hits[heap[i]] = 0;
+            positions[heap[i]] = 0;
+        }
+        size = 0;
+        for (int i = 0; i < coveredCount; ++i) {
+            queried[covered[i] >>> 6] = 0;
+            coverCounts[covered[i]] = 0;
+        }
+        coveredCount = 0;
+        ingredientCount = 0;
+    }
+
+    /** Returns whether an ingredient was added. */
+    public boolean contains(final int ingredient) {
+        return (queried[ingredient >>> 6] & (1L << ingredient)) != 0;
+    }
+
+    /** Returns whether an ingredient was added or can be replaced by one that was. */
+    public boolean isCovered(final int ingredient) {
+        return coverCounts[ingredient] > 0;
+    }
+
+    public int getIngredientCount() {
+        return ingredientCount;
+    }
+
+    /** Returns the number of recipes using at least one covered ingredient. */
+    public int getMatchCount() {
+        return size;
+    }
+
+    /** Returns how many of a recipe's ingredients are covered. */
+    public int getHits(final int recipe) {
+        return hits[recipe];
+    }
+
+    /**
+     * Copies the best recipes, best first, in O(k log k).
+     *
+     * @param out Receives at most k recipes, replacing its contents.
+     */
+    public void getTop(final int k, final RecipeIndex.Matches out) {
+        out.clear();
+        if (size == 0 || k <= 0) {
+            return;
+        }
+        // A heap entry can only rank after its parent, so the best k are found by expanding the
+        // heap from the root, always taking the best entry seen so far.
+        int frontierSize = 0;
+        if (frontier.length < 2 * k + 1) {
+            frontier = new int[2 * k + 1];
+        }
+        frontier[frontierSize++] = 0;
+        while (frontierSize > 0 && out.size() < k) {
+            final int best = frontier[0];
+            frontier[0] = frontier[--frontierSize];
+            siftDownFrontier(frontierSize);
+
+            final int recipe = heap[best];
+            out.add(recipe, hits[recipe], scores[recipe]);
+            for (int child = 2 * best + 1; child <= 2 * best + 2 && child < size; ++child) {
+                int i = frontierSize++;
+                frontier[i] = child;
+                while (i > 0 && heapRanksBefore(frontier[i], frontier[(i - 1) / 2])) {
+                    swapFrontier(i, (i - 1) / 2);
+                    i = (i - 1) / 2;
+                }
+            }
+        }
+    }
+
+    public String getStatString() {
+        return String.format(
+                "Matcher: %d ingredients, %d recipes matched, last update %dus",
+                ingredientCount, size, lastUpdateNs / 1000);
+    }
+
+    private int getCoverCount(final int ingredient) {
+        return substitutions != null ? substitutions.getCoverCount(ingredient) : 1;
+    }
+
+    private int getCover(final int ingredient, final int i) {
+        return substitutions != null ? substitutions.getCover(ingredient, i) : ingredient;
+    }
+
+    private boolean heapRanksBefore(final int i, final int j) {
+        return RecipeIndex.ranksBefore(scores[heap[i]], heap[i], scores[heap[j]], heap[j]);
+    }
+
+    private void update(final int i) {
+        if (i > 0 && heapRanksBefore(i, (i - 1) / 2)) {
+            siftUp(i);
+        } else {
+            siftDown(i);
+        }
+    }
+
+    private void removeAt(final int i) {
+        positions[heap[i]] = 0;
+        --size;
+        if (i < size) {
+            heap[i] = heap[size];
+            positions[heap[i]] = i + 1;
+            update(i);
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0 && heapRanksBefore(i, (i - 1) / 2)) {
+            swap(i, (i - 1) / 2);
+            i = (i - 1) / 2;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int best = i;
+            final int left = 2 * i + 1;
+            if (left < size && heapRanksBefore(left, best)) {
+                best = left;
+            }
+            if (left + 1 < size && heapRanksBefore(left + 1, best)) {
+                best = left + 1;
+            }
+            if (best == i) {
+                return;
+            }
+            swap(i, best);
+            i = best;
+        }
+    }
+
+    private void swap(final int i, final int j) {
+        final int recipe = heap[i];
+        heap[i] = heap[j];
+        heap[j] = recipe;
+        positions[heap[i]] = i + 1;
+        positions[heap[j]] = j + 1;
+    }
+
+    private void siftDownFrontier(final int frontierSize) {
+        int i = 0;
+        while (true) {
+            int best = i;
+            final int left = 2 * i + 1;
+            if (left < frontierSize && heapRanksBefore(frontier[left], frontier[best])) {
+                best = left;
+            }
+            if (left + 1 < frontierSize && heapRanksBefore(frontier[left + 1], frontier[best])) {
+                best = left + 1;
+            }
+            if (best == i) {
+                return;
+            }
+            swapFrontier(i, best);
+            i = best;
+        }
+    }
+
+    private void swapFrontier(final int i, final int j) {
+        final int position = frontier[i];
+        frontier[i] = frontier[j];
+        frontier[j] = position;
+    }
+}
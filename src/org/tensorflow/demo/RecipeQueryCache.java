@@ -0,0 +1,119 @@
+package org.tensorflow.demo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The results of recent recipe queries, so that going back and forth between the camera and the
+ * recipe list with the same ingredients doesn't match the corpus again.
+ *
+ * <p>A query is keyed by a 64-bit hash of its sorted, distinct ingredient ids, so the order and
+ * spelling the ingredients were found in don't matter. The ids are kept with each entry and
+ * compared on lookup, so a hash collision is a miss rather than wrong results. Entries also carry
+ * no corpus: every call names the version of the corpus it queries, and a new version empties the
+ * cache. At most {@code capacity} queries are kept, dropping the least recently used first.
+ *
+ * <p>Thread-safe. Cached lists are copied in and out, but the recipes in them are shared and must
+ * not be changed.
+ */
+public class RecipeQueryCache {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static class Entry {
+        final int[] ingredients;
+        final ArrayList<RecipeBase.Recipe> recipes;
+
+        Entry(int[] ingredients, ArrayList<RecipeBase.Recipe> recipes) {
+            this.ingredients = ingredients;
+            this.recipes = recipes;
+        }
+    }
+
+    private final LinkedHashMap<Long, Entry> entries;
+    private long version = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long invalidationCount = 0;
+
+    public RecipeQueryCache(final int capacity) {
+        entries = new LinkedHashMap<Long, Entry>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the cached results of a query, or null if it isn't cached.
+     *
+     * @param version Identifies the corpus and anything else the results depend on.
+     * @param ingredients The query's ingredient ids, sorted and distinct; only the first {@code
+     *     count} are used.
+     */
+    public synchronized ArrayList<RecipeBase.Recipe> get(
+            long version, int[] ingredients, int count) {
+        setVersion(version);
+        Entry entry = entries.get(hash(ingredients, count));
+        if (entry == null
+                || !Arrays.equals(entry.ingredients, Arrays.copyOf(ingredients, count))) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return new ArrayList<>(entry.recipes);
+    }
+
+    /** Caches the results of a query, as for {@link #get}, replacing any entry it collides with. */
+    public synchronized void put(
+            long version, int[] ingredients, int count, ArrayList<RecipeBase.Recipe> recipes) {
+        setVersion(version);
+        entries.put(hash(ingredients, count),
+                new Entry(Arrays.copyOf(ingredients, count), new ArrayList<>(recipes)));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized String getStatString() {
+        return String.format("Query cache: %d entries, %d hits, %d misses, %d invalidations",
+                entries.size(), hitCount, missCount, invalidationCount);
+    }
+
+    private void setVersion(long version) {
+        if (version != this.version) {
+            if (!entries.isEmpty()) {
+                entries.clear();
+                invalidationCount++;
+            }
+            this.version = version;
+        }
+    }
+
+    /** FNV-1a over the ids' bytes, little-endian. */
+    static long hash(int[] ids, int count) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < count; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                hash = (hash ^ ((ids[i] >>> shift) & 0xff)) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,169 @@
+package org.tensorflow.demo;
+
+import java.util.Arrays;
+
+/**
+ * Ranks the recipes matched by {@link RecipeIndex#queryTop}. Higher scores rank first.
+ *
+ * <p>To let the search stop early, a scorer also bounds the score of any recipe by its number of
+ * distinct ingredients alone, and that bound must not grow with the number of ingredients.
+ *
+ * <p>A recipe's score may only depend on which of its own ingredients are queried, so that {@link
+ * RecipeMatcher} only needs to rescore the recipes of an ingredient when it is added or removed.
+ * Scorers keep per-query state, so each index or matcher needs its own.
+ *
+ * <p>After {@link #prepare}, a parallel {@link RecipeIndex#queryTop} calls {@link #score} and
+ * {@link #bound} from several threads at once, so those must not change shared state.
+ */
+public interface RecipeScorer {
+    /**
+     * Called at the start of every query, and whenever the queried ingredients change, before any
+     * other method.
+     *
+     * @param ingredients The distinct queried ingredient ids; only the first {@code count} are
+     *     valid.
+     */
+    void prepare(RecipeIndex index, int[] ingredients, int count);
+
+    /** Scores a recipe of which {@code hits} ingredients were queried. */
+    float score(RecipeIndex index, int recipe, int hits);
+
+    /** Returns the highest score any recipe with at least {@code setSize} ingredients can get. */
+    float bound(int setSize);
+
+    /** The fraction of a recipe's ingredients that were detected. */
+    class Coverage implements RecipeScorer {
+        private int queryCount;
+
+        @Override
+        public void prepare(final RecipeIndex index, final int[] ingredients, final int count) {
+            queryCount = count;
+        }
+
+        @Override
+        public float score(final RecipeIndex index, final int recipe, final int hits) {
+            return (float) hits / index.getIngredientSetSize(recipe);
+        }
+
+        @Override
+        public float bound(final int setSize) {
+            return (float) Math.min(queryCount, setSize) / setSize;
+        }
+    }
+
+    /** Ranks recipes by how few of their ingredients are missing, as a negative count. */
+    class FewestMissing implements RecipeScorer {
+        private int queryCount;
+
+        @Override
+        public void prepare(final RecipeIndex index, final int[] ingredients, final int count) {
+            queryCount = count;
+        }
+
+        @Override
+        public float score(final RecipeIndex index, final int recipe, final int hits) {
+            return hits - index.getIngredientSetSize(recipe);
+        }
+
+        @Override
+        public float bound(final int setSize) {
+            return -Math.max(0, setSize - queryCount);
+        }
+    }
+
+    /**
+     * Coverage weighted by ingredient rarity: detecting an ingredient few recipes use counts for
+     * more than detecting salt. Each ingredient weighs {@code 1 + ln(recipes / recipes using it)}.
+     */
+    class Rarity implements RecipeScorer {
+        private static final float BOUND_SLACK = 1e-5f;
+
+        private RecipeIndex weightedIndex;
+        private float[] weights;
+        private boolean[] queried;
+        private int[] queriedIds = new int[16];
+        // Scratch for score(), one per thread.
+        private final ThreadLocal<int[]> scratch = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[16];
+            }
+        };
+        // sortedQueryWeights[i] is the weight of the i-th heaviest queried ingredient.
+        private float[] sortedQueryWeights = new float[16];
+        private int queryCount;
+
+        @Override
+        public void prepare(final RecipeIndex index, final int[] ingredients, final int count) {
+            if (weightedIndex != index) {
+                weightedIndex = index;
+                weights = new float[index.getIngredientCount()];
+                for (int i = 0; i < weights.length; ++i) {
+                    weights[i] =
+                            1 + (float) Math.log((double) index.getRecipeCount()
+                                    / Math.max(1, index.getRecipeCount(i)));
+                }
+                queried = new boolean[weights.length];
+                queryCount = 0;
+            }
+            for (int i = 0; i < queryCount; ++i) {
+                queried[queriedIds[i]] = false;
+            }
+            if (queriedIds.length < count) {
+                queriedIds = new int[count];
+            }
+            for (int i = 0; i < count; ++i) {
+                queried[ingredients[i]] = true;
+                queriedIds[i] = ingredients[i];
+            }
+            if (sortedQueryWeights.length < count) {
+                sortedQueryWeights = new float[count];
+            }
+            for (int i = 0; i < count; ++i) {
+                sortedQueryWeights[i] = -weights[ingredients[i]];
+            }
+            Arrays.sort(sortedQueryWeights, 0, count);
+            for (int i = 0; i < count; ++i) {
+                sortedQueryWeights[i] = -sortedQueryWeights[i];
+            }
+            queryCount = count;
+        }
+
+        @Override
+        public float score(final RecipeIndex index, final int recipe, final int hits) {
+            final int size = index.getIngredientSetSize(recipe);
+            int[] ids = scratch.get();
+            if (ids.length < size) {
+                ids = new int[Math.max(size, ids.length * 2)];
+                scratch.set(ids);
+            }
+            index.getIngredientSet(recipe, ids);
+            float hitWeight = 0;
+            float totalWeight = 0;
+            for (int i = 0; i < size; ++i) {
+                totalWeight += weights[ids[i]];
+                if (queried[ids[i]]) {
+                    hitWeight += weights[ids[i]];
+                }
+            }
+            return hitWeight / totalWeight;
+        }
+
+        @Override
+        public float bound(final int setSize) {
+            if (setSize <= queryCount) {
+                return 1;
+            }
+            // At best the h heaviest queried ingredients were hit, and the other setSize - h
+            // ingredients have the least possible weight, 1.
+            float best = 0;
+            float hitWeight = 0;
+            for (int h = 1; h <= queryCount; ++h) {
+                hitWeight += sortedQueryWeights[h - 1];
+                best = Math.max(best, hitWeight / (hitWeight + setSize - h));
+            }
+            // Slack for the rounding of the sums, which are added up in another order in score().
+            return best * (1 + BOUND_SLACK);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import java.util.Arrays;
+
+/**
+ * Smooths per-label confidences over consecutive classified frames with an exponential moving
+ * average, and reports a label once its average crosses a stable threshold.
+ *
+ * <p>Labels are small non-negative ids, such as class indices or ingredient ids, so scores are
+ * kept in an array indexed by id.
+ *
+ * <p>A label missing from a frame counts as confidence 0 for that frame, so a single confident
+ * frame decays away instead of being reported. With decay {@code d}, a label seen with confidence
+ * {@code c} in every frame converges to {@code c}. Once reported, a label is only reported again
+ * after its average has dropped below half the threshold.
+ *
+ * <p>Decay is applied lazily when a label is next updated, so each frame costs O(1) per
+ * recognition regardless of how many labels have been seen. Not thread-safe.
+ */
+public class RecognitionAggregator {
+  private static class Score {
+    float value;
+    long frame;
+    boolean stable;
+  }
+
+  private final float decay;
+  private final float stableThreshold;
+  private Score[] scores = new Score[16];
+  private long frame = 0;
+
+  /**
+   * @param decay Weight kept by the previous average each frame, in [0, 1).
+   * @param stableThreshold Average confidence at which a label is reported.
+   */
+  public RecognitionAggregator(final float decay, final float stableThreshold) {
+    if (decay < 0 || decay >= 1) {
+      throw new IllegalArgumentException("Decay must be in [0, 1): " + decay);
+    }
+    this.decay = decay;
+    this.stableThreshold = stableThreshold;
+  }
+
+  /** Starts a new frame. Labels not added to it decay by one step. */
+  public void nextFrame() {
+    ++frame;
+  }
+
+  /**
+   * Adds a recognition from the current frame. Each label should be added at most once per frame.
+   *
+   * @return true if this made the label's average cross the stable threshold.
+   */
+  public boolean add(final int label, final float confidence) {
+    if (label >= scores.length) {
+      scores = Arrays.copyOf(scores, Math.max(label + 1, scores.length * 2));
+    }
+    Score score = scores[label];
+    if (score == null) {
+      score = new Score();
+      scores[label] = score;
+    } else {
+      score.value *= decayOver(frame - score.frame);
+      // Frames without the label may have let it fade out since it was last updated.
+      if (score.stable && score.value < stableThreshold / 2) {
+        score.stable = false;
+      }
+    }
+    score.frame = frame;
+    score.value += (1 - decay) * confidence;
+
+    if (!score.stable && score.value >= stableThreshold) {
+      score.stable = true;
+      return true;
+    }
+    return false;
+  }
+
+  /** Returns the current average confidence of a label. */
+  public float getScore(final int label) {
+    final Score score = label < scores.length ? scores[label] : null;
+    return score == null ? 0 : score.value * decayOver(frame - score.frame);
+  }
+
+  /** Forgets all labels, e.g. when scanning is restarted. */
+  public void clear() {
+    Arrays.fill(scores, null);
+  }
+
+  private float decayOver(final long frames) {
+    return frames == 1 ? decay : (float) Math.pow(decay, frames);
+  }
+}
@@ -62,7 +62,9 @@ public class SnpeImageClassifier implements Classifier {
   // Pre-allocated buffers.
   private Vector<String> labels = new Vector<String>();
   private int[] intValues;
+  private float[] floatValues;
   private float[] outputs;
+  private Map<String, FloatTensor> inputs;
 
   private boolean logStats = false;
 
@@ -165,8 +167,11 @@ public class SnpeImageClassifier implements Classifier {
 
     // Pre-allocate buffers.
     c.intValues = new int[inputSize * inputSize];
+    c.floatValues = new float[3];
     c.outputs = new float[numClasses];
     c.inputTensor = c.inferenceInterface.createFloatTensor(inputSize, inputSize, 3);
+    c.inputs = new HashMap<>();
+    c.inputs.put(inputName, c.inputTensor);
 
     return c;
   }
@@ -181,7 +186,6 @@ public class SnpeImageClassifier implements Classifier {
     // Preprocess the image data from 0-255 int to normalized float based
     // on the provided parameters.
     bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-    final float[] floatValues = new float[3];
     for (int y = 0; y < inputSize; y++) {
       for (int x = 0; x < inputSize; x++) {
         final int val = intValues[y * inputSize + x];
@@ -195,9 +199,7 @@ public class SnpeImageClassifier implements Classifier {
     final long startTime = SystemClock.uptimeMillis();
     // Run the inference call.
     Trace.beginSection("run");
-    final Map<String, FloatTensor> map = new HashMap<>();
-    map.put(inputName, inputTensor);
-    final Map<String, FloatTensor> output = inferenceInterface.execute(map);
+    final Map<String, FloatTensor> output = inferenceInterface.execute(inputs);
     result.time = SystemClock.uptimeMillis() - startTime;
     Trace.endSection();
     output.get(outputName).read(this.outputs, 0, this.outputs.length);
@@ -217,7 +219,7 @@ public class SnpeImageClassifier implements Classifier {
       if (outputs[i] > THRESHOLD) {
         pq.add(
             new Recognition(
-                "" + i, labels.size() > i ? labels.get(i) : "unknown", outputs[i], null));
+                "" + i, labels.size() > i ? labels.get(i) : "unknown", outputs[i], null, i));
       }
     }
     final ArrayList<Recognition> recognitions = new ArrayList<Recognition>();
@@ -0,0 +1,184 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.os.Trace;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.tensorflow.demo.Classifier.Recognition;
+import org.tensorflow.demo.env.ImageUtils;
+import org.tensorflow.demo.env.Logger;
+
+/**
+ * Classifies a full-resolution JPEG still as a set of model-sized tiles, so that small objects
+ * cover enough of the classifier input to be recognized.
+ *
+ * <p>The tiles are the central square of the still, plus a {@code gridSize x gridSize} grid of
+ * half-overlapping tiles covering that square. Each tile is decoded on its own with
+ * {@link BitmapRegionDecoder}, subsampled to roughly the model input size while decoding, so
+ * memory use is bounded by one tile regardless of the still's resolution. Not thread-safe.
+ */
+public class StillTileClassifier {
+  private static final Logger LOGGER = new Logger();
+
+  private final int inputSize;
+  private final int gridSize;
+  private final float iouThreshold;
+
+  // Pre-allocated buffers.
+  private final Bitmap tileBitmap;
+  private final Canvas tileCanvas;
+  private final BitmapFactory.Options options = new BitmapFactory.Options();
+  private final Rect region = new Rect();
+  private Bitmap decodeBitmap;
+
+  private long lastProcessingTimeMs;
+
+  /**
+   * @param inputSize The classifier input size. Tiles are scaled to inputSize x inputSize.
+   * @param gridSize The number of tiles along each side of the central square, in addition to
+   *     the square itself. 0 only classifies the central square.
+   * @param iouThreshold Overlap above which two tiles with the same label are merged.
+   */
+  public StillTileClassifier(final int inputSize, final int gridSize, final float iouThreshold) {
+    this.inputSize = inputSize;
+    this.gridSize = gridSize;
+    this.iouThreshold = iouThreshold;
+    tileBitmap = Bitmap.createBitmap(inputSize, inputSize, Config.ARGB_8888);
+    tileCanvas = new Canvas(tileBitmap);
+    options.inMutable = true;
+    options.inPreferredConfig = Config.ARGB_8888;
+  }
+
+  /**
+   * Classifies every tile of a JPEG still.
+   *
+   * @param classifier The classifier to run on each tile.
+   * @param jpeg A buffer holding the JPEG data.
+   * @param length The number of valid bytes in {@code jpeg}.
+   * @param rotation The rotation to apply to each tile before classifying it, in degrees.
+   * @return The recognitions from all tiles merged with non-maximum suppression, most confident
+   *     first. Each location is the tile it was found in, in still pixel coordinates before
+   *     rotation.
+   */
+  public List<Recognition> classify(
+      final Classifier classifier, final byte[] jpeg, final int length, final int rotation)
+      throws IOException {
+    Trace.beginSection("classifyStill");
+    final long startTime = SystemClock.uptimeMillis();
+    final BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(jpeg, 0, length, false);
+    final List<Recognition> candidates = new ArrayList<Recognition>();
+    int tiles = 0;
+    try {
+      final int width = decoder.getWidth();
+      final int height = decoder.getHeight();
+      final int square = Math.min(width, height);
+      final int left = (width - square) / 2;
+      final int top = (height - square) / 2;
+
+      classifyTile(classifier, decoder, left, top, square, rotation, candidates);
+      ++tiles;
+
+      if (gridSize > 0) {
+        // gridSize tiles spaced half a tile apart span the square exactly.
+        final int side = 2 * square / (gridSize + 1);
+        final int stride = side / 2;
+        for (int y = 0; y < gridSize; ++y) {
+          for (int x = 0; x < gridSize; ++x) {
+            classifyTile(
+                classifier, decoder, left + x * stride, top + y * stride, side, rotation, candidates);
+            ++tiles;
+          }
+        }
+      }
+    } finally {
+      decoder.recycle();
+      Trace.endSection();
+    }
+
+    final List<Recognition> results =
+        NonMaxSuppression.apply(candidates, iouThreshold, Integer.MAX_VALUE);
+    lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
+    LOGGER.i("Classified %d tiles in %dms", tiles, lastProcessingTimeMs);
+    return results;
+  }
+
+  public long getLastProcessingTimeMs() {
+    return lastProcessingTimeMs;
+  }
+
+  /** Returns the bitmap the last tile was classified from. */
+  public Bitmap getTileBitmap() {
+    return tileBitmap;
+  }
+
+  private void classifyTile(
+      final Classifier classifier,
+      final BitmapRegionDecoder decoder,
+      final int left,
+      final int top,
+      final int side,
+      final int rotation,
+      final List<Recognition> candidates) {
+    region.set(left, top, left + side, top + side);
+
+    // Subsample while decoding, but never below the model input size.
+    int sampleSize = 1;
+    while (side / (sampleSize * 2) >= inputSize) {
+      sampleSize *= 2;
+    }
+    options.inSampleSize = sampleSize;
+    final int decodedSide = (side + sampleSize - 1) / sampleSize;
+    options.inBitmap =
+        decodeBitmap != null && decodeBitmap.getAllocationByteCount() >= decodedSide * decodedSide * 4
+            ? decodeBitmap
+            : null;
+
+    final Bitmap decoded = decoder.decodeRegion(region, options);
+    if (decoded != decodeBitmap) {
+      if (decodeBitmap != null) {
+        decodeBitmap.recycle();
+      }
+      decodeBitmap = decoded;
+    }
+
+    final Matrix transform =
+        ImageUtils.getTransformationMatrix(
+            decoded.getWidth(), decoded.getHeight(), inputSize, inputSize, rotation, true);
+    tileCanvas.drawBitmap(decoded, transform, null);
+
+    final RectF location = new RectF(region);
+    for (final Recognition recognition : classifier.recognizeImage(tileBitmap).result) {
+      candidates.add(
+          new Recognition(
+              recognition.getId(),
+              recognition.getTitle(),
+              recognition.getConfidence(),
+              location,
+              recognition.getClassIndex()));
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package org.tensorflow.demo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.tensorflow.demo.env.CsvReader;
+
+/**
+ * Which ingredients can stand in for which, closed under transitivity: if a recipe needing
+ * lemon accepts lime, and one needing lime accepts orange, then lemon accepts orange too.
+ *
+ * <p>The graph is read from records of the form ingredient,substitute,... and its closure is
+ * computed once when it is loaded. Both directions are kept as flat lists over ingredient ids, in
+ * the same layout as the posting lists of {@link RecipeIndex}: what an ingredient can be replaced
+ * by, for reporting, and what an ingredient can replace, its cover, for expanding queries. A
+ * query expanded by its cover counts substitutes with the same bitset AND and popcount as exact
+ * matches.
+ *
+ * <p>Has no Android dependencies, since {@link RecipeIndex} refers to it and is also compiled for
+ * the build machine.
+ */
+public class SubstitutionGraph {
+    public static final String SUBSTITUTE_FILE = "ingredient_substitutes.csv";
+
+    // Per ingredient, everything that can replace it, transitively, excluding itself.
+    private final int[] substituteStarts;
+    private final int[] substitutes;
+    // Per ingredient, itself followed by everything it can replace, transitively.
+    private final int[] coverStarts;
+    private final int[] covers;
+    private final int edgeCount;
+    private final int skippedCount;
+    private final int checksum;
+
+    /**
+     * @param reader Records of the form ingredient,substitute,... Names not in the index are
+     *     skipped.
+     * @param index Resolves ingredient names to ids.
+     */
+    public SubstitutionGraph(CsvReader reader, RecipeIndex index) throws IOException {
+        int ingredientCount = index.getIngredientCount();
+        ArrayList<ArrayList<Integer>> edges = new ArrayList<>(ingredientCount);
+        for (int i = 0; i < ingredientCount; i++) {
+            edges.add(new ArrayList<Integer>());
+        }
+        ArrayList<String> fields = new ArrayList<>();
+        int edgeCount = 0;
+        int skippedCount = 0;
+        while (reader.readRecord(fields)) {
+            int need = index.getIngredientId(fields.get(0));
+            if (need < 0) {
+                skippedCount += fields.size() - 1;
+                continue;
+            }
+            for (int i = 1; i < fields.size(); i++) {
+                int substitute = index.getIngredientId(fields.get(i));
+                if (substitute < 0) {
+                    skippedCount++;
+                } else if (substitute != need) {
+                    edges.get(need).add(substitute);
+                    edgeCount++;
+                }
+            }
+        }
+
+        // A search from every ingredient with edges; the graph is small and sparse.
+        substituteStarts = new int[ingredientCount + 1];
+        int[] closure = new int[Math.max(16, edgeCount)];
+        int closureSize = 0;
+        int[] stack = new int[ingredientCount];
+        int[] seenBy = new int[ingredientCount];
+        Arrays.fill(seenBy, -1);
+        int[] coverSizes = new int[ingredientCount];
+        for (int need = 0; need < ingredientCount; need++) {
+            substituteStarts[need] = closureSize;
+            if (edges.get(need).isEmpty()) {
+                continue;
+            }
+            seenBy[need] = need;
+            int stackSize = 0;
+            stack[stackSize++] = need;
+            while (stackSize > 0) {
+                for (int substitute : edges.get(stack[--stackSize])) {
+                    if (seenBy[substitute] != need) {
+                        seenBy[substitute] = need;
+                        stack[stackSize++] = substitute;
+                        if (closureSize == closure.length) {
+                            closure = Arrays.copyOf(closure, closureSize * 2);
+                        }
+                        closure[closureSize++] = substitute;
+                        coverSizes[substitute]++;
+                    }
+                }
+            }
+            Arrays.sort(closure, substituteStarts[need], closureSize);
+        }
+        substituteStarts[ingredientCount] = closureSize;
+        substitutes = Arrays.copyOf(closure, closureSize);
+
+        coverStarts = new int[ingredientCount + 1];
+        for (int i = 0; i < ingredientCount; i++) {
+            coverStarts[i + 1] = coverStarts[i] + 1 + coverSizes[i];
+        }
+        covers = new int[coverStarts[ingredientCount]];
+        int[] fill = new int[ingredientCount];
+        for (int i = 0; i < ingredientCount; i++) {
+            covers[coverStarts[i]] = i;
+            fill[i] = coverStarts[i] + 1;
+        }
+        for (int need = 0; need < ingredientCount; need++) {
+            for (int i = substituteStarts[need]; i < substituteStarts[need + 1]; i++) {
+                covers[fill[substitutes[i]]++] = need;
+            }
+        }
+        this.edgeCount = edgeCount;
+        this.skippedCount = skippedCount;
+        this.checksum = 31 * Arrays.hashCode(substituteStarts) + Arrays.hashCode(substitutes);
+    }
+
+    /** Returns a hash of the closure, which changes whenever what matches what does. */
+    public int getChecksum() {
+        return checksum;
+    }
+
+    /** Returns the number of substitutions read, before the closure. */
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /** Returns the number of substitutions skipped because a name is not in the index. */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    /** Returns the number of substitutions after the closure. */
+    public int getClosureCount() {
+        return substitutes.length;
+    }
+
+    /** Returns how many ingredients, including itself, an ingredient covers. */
+    public int getCoverCount(int ingredient) {
+        return coverStarts[ingredient + 1] - coverStarts[ingredient];
+    }
+
+    /**
+     * Returns the i-th ingredient covered by an ingredient, for i below {@link #getCoverCount}.
+     * The first is the ingredient itself.
+     */
+    public int getCover(int ingredient, int i) {
+        return covers[coverStarts[ingredient] + i];
+    }
+
+    /** Returns how many ingredients can replace an ingredient, not counting itself. */
+    public int getSubstituteCount(int ingredient) {
+        return substituteStarts[ingredient + 1] - substituteStarts[ingredient];
+    }
+
+    /** Returns the i-th ingredient that can replace an ingredient, ascending by id. */
+    public int getSubstitute(int ingredient, int i) {
+        return substitutes[substituteStarts[ingredient] + i];
+    }
+}
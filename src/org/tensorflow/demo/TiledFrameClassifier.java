@@ -0,0 +1,235 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.os.Trace;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.tensorflow.demo.Classifier.Recognition;
+import org.tensorflow.demo.env.ImageUtils;
+import org.tensorflow.demo.env.Logger;
+
+/**
+ * Classifies a whole frame as a grid of overlapping square tiles, instead of only its center
+ * crop, and merges the per-tile results with non-maximum suppression. Can also classify a
+ * caller-chosen set of regions instead of the grid.
+ *
+ * <p>Classifiers reuse their input buffers and may not be called concurrently, so tiles are
+ * classified one at a time. What does run in parallel is cropping and scaling: a worker thread
+ * prepares the next tile into a second buffer while the current one is being classified. Not
+ * thread-safe; {@link #close()} stops the worker.
+ */
+public class TiledFrameClassifier {
+  private static final Logger LOGGER = new Logger();
+
+  // One buffer being classified and one being prepared.
+  private static final int TILE_BUFFERS = 2;
+
+  private static class Tile {
+    final Bitmap bitmap;
+    final Canvas canvas;
+    final Matrix transform = new Matrix();
+    final RectF location = new RectF();
+
+    Tile(final int size) {
+      bitmap = Bitmap.createBitmap(size, size, Config.ARGB_8888);
+      canvas = new Canvas(bitmap);
+    }
+  }
+
+  private final int inputSize;
+  private final float scale;
+  private final float stride;
+  private final float iouThreshold;
+  private final int maxResults;
+
+  private final Tile[] tiles = new Tile[TILE_BUFFERS];
+  private final ExecutorService preparer = Executors.newSingleThreadExecutor();
+  private final List<RectF> grid = new ArrayList<RectF>();
+  private int gridWidth;
+  private int gridHeight;
+
+  private long lastProcessingTimeMs;
+
+  /**
+   * @param inputSize The classifier input size. Tiles are scaled to inputSize x inputSize.
+   * @param scale The tile side as a fraction of the frame's shorter side, in (0, 1].
+   * @param stride The step between neighbouring tiles as a fraction of the tile side, in (0, 1].
+   * @param iouThreshold Overlap above which two tiles with the same label are merged.
+   * @param maxResults The maximum number of merged recognitions to return.
+   */
+  public TiledFrameClassifier(
+      final int inputSize,
+      final float scale,
+      final float stride,
+      final float iouThreshold,
+      final int maxResults) {
+    if (scale <= 0 || scale > 1 || stride <= 0 || stride > 1) {
+      throw new IllegalArgumentException("Need scale and stride in (0, 1]: " + scale + ", " + stride);
+    }
+    this.inputSize = inputSize;
+    this.scale = scale;
+    this.stride = stride;
+    this.iouThreshold = iouThreshold;
+    this.maxResults = maxResults;
+    for (int i = 0; i < TILE_BUFFERS; ++i) {
+      tiles[i] = new Tile(inputSize);
+    }
+  }
+
+  /**
+   * Classifies every tile of a frame.
+   *
+   * @param classifier The classifier to run on each tile.
+   * @param frame The frame, not modified while this runs.
+   * @param rotation The rotation to apply to each tile before classifying it, in degrees.
+   * @return The merged recognitions, most confident first, located in frame coordinates.
+   */
+  public List<Recognition> classify(
+      final Classifier classifier, final Bitmap frame, final int rotation) {
+    layOutGrid(frame.getWidth(), frame.getHeight());
+    return classify(classifier, frame, grid, grid.size(), rotation);
+  }
+
+  /**
+   * Classifies arbitrary regions of a frame, such as the most salient ones, as tiles.
+   *
+   * @param classifier The classifier to run on each tile.
+   * @param frame The frame, not modified while this runs.
+   * @param regions The regions to classify, in frame pixels, not modified while this runs.
+   *     Regions need not be square; they are center-cropped to a square tile.
+   * @param count The number of leading regions to classify.
+   * @param rotation The rotation to apply to each tile before classifying it, in degrees.
+   * @return The merged recognitions, most confident first, each located at its region.
+   */
+  public List<Recognition> classify(
+      final Classifier classifier,
+      final Bitmap frame,
+      final List<RectF> regions,
+      final int count,
+      final int rotation) {
+    final List<Recognition> candidates = new ArrayList<Recognition>();
+    if (count == 0) {
+      return candidates;
+    }
+    Trace.beginSection("classifyTiles");
+    final long startTime = SystemClock.uptimeMillis();
+    try {
+      Future<Tile> next = prepare(frame, regions.get(0), 0, rotation);
+      for (int i = 0; i < count; ++i) {
+        final Tile tile = next.get();
+        if (i + 1 < count) {
+          next = prepare(frame, regions.get(i + 1), i + 1, rotation);
+        }
+        for (final Recognition recognition : classifier.recognizeImage(tile.bitmap).result) {
+          candidates.add(
+              new Recognition(
+                  recognition.getId(),
+                  recognition.getTitle(),
+                  recognition.getConfidence(),
+                  new RectF(tile.location),
+                  recognition.getClassIndex()));
+        }
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOGGER.w("Interrupted while classifying tiles");
+    } catch (final ExecutionException e) {
+      LOGGER.e(e.getCause(), "Failed to prepare tile");
+    } finally {
+      Trace.endSection();
+    }
+
+    final List<Recognition> results = NonMaxSuppression.apply(candidates, iouThreshold, maxResults);
+    lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
+    return results;
+  }
+
+  public int getTileCount() {
+    return grid.size();
+  }
+
+  public long getLastProcessingTimeMs() {
+    return lastProcessingTimeMs;
+  }
+
+  /** Stops the worker thread. The classifier can't be used afterwards. */
+  public void close() {
+    preparer.shutdownNow();
+  }
+
+  private Future<Tile> prepare(
+      final Bitmap frame, final RectF cell, final int index, final int rotation) {
+    // A buffer is only reused two tiles later, after the classifier is done with it.
+    final Tile tile = tiles[index % TILE_BUFFERS];
+    return preparer.submit(
+        new Callable<Tile>() {
+          @Override
+          public Tile call() {
+            tile.location.set(cell);
+            tile.transform.set(
+                ImageUtils.getTransformationMatrix(
+                    (int) cell.width(), (int) cell.height(), inputSize, inputSize, rotation, true));
+            tile.transform.preTranslate(-cell.left, -cell.top);
+            tile.canvas.drawBitmap(frame, tile.transform, null);
+            return tile;
+          }
+        });
+  }
+
+  /**
+   * Covers the frame with square tiles. Tiles are spaced by the stride, and the last row and
+   * column are aligned with the frame edges so nothing is left out.
+   */
+  private void layOutGrid(final int width, final int height) {
+    if (width == gridWidth && height == gridHeight) {
+      return;
+    }
+    gridWidth = width;
+    gridHeight = height;
+    grid.clear();
+
+    final int side = Math.max(1, Math.round(scale * Math.min(width, height)));
+    final int step = Math.max(1, Math.round(stride * side));
+    for (final int y : positions(height, side, step)) {
+      for (final int x : positions(width, side, step)) {
+        grid.add(new RectF(x, y, x + side, y + side));
+      }
+    }
+    LOGGER.i("Tiling %dx%d frames with %d tiles of %dpx", width, height, grid.size(), side);
+  }
+
+  private static List<Integer> positions(final int length, final int side, final int step) {
+    final List<Integer> positions = new ArrayList<Integer>();
+    int position = 0;
+    for (; position + side < length; position += step) {
+      positions.add(position);
+    }
+    positions.add(length - side);
+    return positions;
+  }
+}
@@ -0,0 +1,135 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Reads comma-separated records one at a time from a character stream.
+ *
+ * <p>Fields may be quoted with double quotes, in which case they may contain commas, line breaks
+ * and doubled quotes standing for one quote. Records end at LF, CR LF or CR, and records may
+ * have different numbers of fields. Blank lines are skipped.
+ *
+ * <p>Input is read through a fixed-size buffer and each field is built in a reused builder, so
+ * only the field strings themselves are allocated and the input is never held in memory. Not
+ * thread-safe.
+ */
+public class CsvReader implements Closeable {
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Reader in;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int position = 0;
+  private int limit = 0;
+  private final StringBuilder field = new StringBuilder();
+  private int lineNumber = 1;
+
+  public CsvReader(final Reader in) {
+    this.in = in;
+  }
+
+  /**
+   * Reads the next record.
+   *
+   * @param fields Receives the record's fields, replacing its contents.
+   * @return false once the input is exhausted, in which case {@code fields} is empty.
+   * @throws IOException if reading fails or a quoted field is never closed.
+   */
+  public boolean readRecord(final List<String> fields) throws IOException {
+    fields.clear();
+    int c = read();
+    while (c == '\n' || c == '\r') {
+      skipLineBreak(c);
+      c = read();
+    }
+    if (c < 0) {
+      return false;
+    }
+
+    field.setLength(0);
+    boolean quoted = false;
+    while (true) {
+      if (quoted) {
+        if (c < 0) {
+          throw new IOException("Unterminated quoted field at line " + lineNumber);
+        }
+        if (c == '"') {
+          c = read();
+          if (c != '"') {
+            // The closing quote; c is whatever follows it.
+            quoted = false;
+            continue;
+          }
+        } else if (c == '\n') {
+          ++lineNumber;
+        }
+        field.append((char) c);
+      } else if (c == '"' && field.length() == 0) {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else if (c < 0 || c == '\n' || c == '\r') {
+        fields.add(field.toString());
+        if (c >= 0) {
+          skipLineBreak(c);
+        }
+        return true;
+      } else {
+        field.append((char) c);
+      }
+      c = read();
+    }
+  }
+
+  /** Returns the line the next record starts on, counting from 1. */
+  public int getLineNumber() {
+    return lineNumber;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /** Consumes the rest of a line break that starts with c. */
+  private void skipLineBreak(final int c) throws IOException {
+    ++lineNumber;
+    if (c == '\r') {
+      final int next = read();
+      if (next >= 0 && next != '\n') {
+        // A lone CR; the character after it starts the next line, so give it back.
+        --position;
+      }
+    }
+  }
+
+  private int read() throws IOException {
+    if (position == limit) {
+      limit = in.read(buffer, 0, BUFFER_SIZE);
+      position = 0;
+      if (limit <= 0) {
+        limit = 0;
+        return -1;
+      }
+    }
+    return buffer[position++];
+  }
+}
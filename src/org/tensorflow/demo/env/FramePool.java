@@ -0,0 +1,211 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.util.SparseArray;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of natively allocated, aligned direct buffers for image planes, ARGB frames and model
+ * inputs. Buffers are reference counted and return to the pool when the last reference is
+ * released, so steady-state frame processing does not allocate.
+ */
+public class FramePool {
+  private static final Logger LOGGER = new Logger();
+
+  /** Alignment of every buffer, in bytes. One cache line on current ARM and x86 cores. */
+  public static final int ALIGNMENT = 64;
+
+  private static final int DEFAULT_MAX_FREE_PER_SIZE = 4;
+
+  private static FramePool defaultPool;
+
+  static {
+    System.loadLibrary("imageutil");
+  }
+
+  /**
+   * A reference-counted buffer handed out by a {@link FramePool}. A frame starts with one
+   * reference; each {@link #retain()} must be matched by a {@link #release()}.
+   */
+  public static final class Frame {
+    private final FramePool pool;
+    private final ByteBuffer buffer;
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    private Frame(final FramePool pool, final ByteBuffer buffer) {
+      this.pool = pool;
+      this.buffer = buffer;
+    }
+
+    /** Returns the underlying direct buffer, in native byte order. */
+    public ByteBuffer getBuffer() {
+      return buffer;
+    }
+
+    public int capacity() {
+      return buffer.capacity();
+    }
+
+    // Both only change a count above zero, so a misuse throws without corrupting the count.
+    public Frame retain() {
+      while (true) {
+        final int count = refCount.get();
+        if (count <= 0) {
+          throw new IllegalStateException("Frame retained after it was released");
+        }
+        if (refCount.compareAndSet(count, count + 1)) {
+          return this;
+        }
+      }
+    }
+
+    public void release() {
+      while (true) {
+        final int count = refCount.get();
+        if (count <= 0) {
+          throw new IllegalStateException("Frame released more times than it was retained");
+        }
+        if (refCount.compareAndSet(count, count - 1)) {
+          if (count == 1) {
+            pool.recycle(this);
+          }
+          return;
+        }
+      }
+    }
+  }
+
+  private final int maxFreePerSize;
+
+  // Free frames keyed by exact capacity. Frame sizes are stable for a given preview size, so
+  // exact matching gives full reuse without the waste of rounding to size classes.
+  private final SparseArray<ArrayDeque<Frame>> freeFrames = new SparseArray<ArrayDeque<Frame>>();
+
+  private long hits;
+  private long misses;
+  private long bytesResident;
+  private long bytesInUse;
+
+  public FramePool() {
+    this(DEFAULT_MAX_FREE_PER_SIZE);
+  }
+
+  /**
+   * @param maxFreePerSize How many idle buffers of a single capacity to keep. Buffers released
+   *     beyond this are freed immediately.
+   */
+  public FramePool(final int maxFreePerSize) {
+    this.maxFreePerSize = maxFreePerSize;
+  }
+
+  /** Returns a process-wide pool, so buffers survive the camera activity being recreated. */
+  public static synchronized FramePool getDefault() {
+    if (defaultPool == null) {
+      defaultPool = new FramePool();
+    }
+    return defaultPool;
+  }
+
+  /**
+   * Returns a frame of exactly the requested capacity, reusing an idle one if possible. The
+   * buffer's position is zero and its limit is its capacity; its contents are undefined.
+   */
+  public synchronized Frame acquire(final int capacity) {
+    Frame frame = null;
+    final ArrayDeque<Frame> free = freeFrames.get(capacity);
+    if (free != null) {
+      frame = free.poll();
+    }
+
+    if (frame != null) {
+      ++hits;
+    } else {
+      ++misses;
+      final ByteBuffer buffer = allocateNative(capacity, ALIGNMENT);
+      if (buffer == null) {
+        throw new OutOfMemoryError("Unable to allocate " + capacity + " byte frame");
+      }
+      buffer.order(ByteOrder.nativeOrder());
+      frame = new Frame(this, buffer);
+      bytesResident += capacity;
+      LOGGER.d("Allocated %d byte frame, %d bytes resident", capacity, bytesResident);
+    }
+
+    frame.buffer.clear();
+    frame.refCount.set(1);
+    bytesInUse += capacity;
+    return frame;
+  }
+
+  private synchronized void recycle(final Frame frame) {
+    final int capacity = frame.capacity();
+    bytesInUse -= capacity;
+
+    ArrayDeque<Frame> free = freeFrames.get(capacity);
+    if (free == null) {
+      free = new ArrayDeque<Frame>(maxFreePerSize);
+      freeFrames.put(capacity, free);
+    }
+    if (free.size() < maxFreePerSize) {
+      free.push(frame);
+    } else {
+      freeNative(frame.buffer);
+      bytesResident -= capacity;
+    }
+  }
+
+  /** Frees every idle buffer. Frames still in use are unaffected. */
+  public synchronized void trim() {
+    for (int i = 0; i < freeFrames.size(); ++i) {
+      final ArrayDeque<Frame> free = freeFrames.valueAt(i);
+      Frame frame;
+      while ((frame = free.poll()) != null) {
+        freeNative(frame.buffer);
+        bytesResident -= frame.capacity();
+      }
+    }
+    freeFrames.clear();
+  }
+
+  /** Returns the fraction of acquisitions served from idle buffers. */
+  public synchronized float getHitRate() {
+    final long total = hits + misses;
+    return total == 0 ? 0.0f : (float) hits / total;
+  }
+
+  /** Returns the total size of all natively allocated buffers, idle or in use. */
+  public synchronized long getBytesResident() {
+    return bytesResident;
+  }
+
+  public synchronized long getBytesInUse() {
+    return bytesInUse;
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "Pool: %.1f%% hits, %dKB resident, %dKB in use",
+        getHitRate() * 100.0f, bytesResident / 1024, bytesInUse / 1024);
+  }
+
+  private static native ByteBuffer allocateNative(int capacity, int alignment);
+
+  private static native void freeNative(ByteBuffer buffer);
+}
@@ -0,0 +1,211 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free hand-off of preallocated frame slots from a single producer thread to a
+ * single consumer thread.
+ *
+ * <p>Every slot is owned by exactly one side at a time. The producer {@link #claim()}s a free
+ * slot, fills it and {@link #publish(Object)}es it; the consumer {@link #poll()}s it, reads it
+ * and {@link #recycle(Object)}s it. Neither side may touch a slot it does not own, so a frame
+ * can never be overwritten while it is being read. Each side holds at most one slot at a time.
+ *
+ * <p>Up to {@code capacity} published frames may wait for the consumer. What happens when the
+ * producer wants to publish more is decided by the {@link OverflowPolicy}.
+ */
+public class FrameQueue<T> {
+  /** What the producer does when {@code capacity} frames are already waiting. */
+  public enum OverflowPolicy {
+    /** Discard the oldest waiting frame and reuse its slot for the new one. */
+    DROP_OLDEST,
+    /** Discard the new frame; {@link #claim()} returns null. */
+    DROP_NEWEST,
+    /** Wait in {@link #claim()} until the consumer recycles a slot. */
+    BLOCK
+  }
+
+  /** Creates the contents of each preallocated slot. */
+  public interface SlotFactory<T> {
+    T create();
+  }
+
+  private static final long BLOCK_PARK_NANOS = 100 * 1000;
+
+  private final OverflowPolicy policy;
+
+  // Published frames. Only the producer pushes, but both sides may pop: the consumer to read a
+  // frame, and the producer to steal the oldest one under DROP_OLDEST. Pops therefore CAS the
+  // head, reading the slot before the CAS so a successful pop always has the right element.
+  private final AtomicReferenceArray<T> pending;
+  private final AtomicLong pendingHead = new AtomicLong();
+  private final AtomicLong pendingTail = new AtomicLong();
+
+  // Recycled slots flowing back from the consumer to the producer. A plain SPSC ring.
+  private final AtomicReferenceArray<T> free;
+  private final AtomicLong freeHead = new AtomicLong();
+  private final AtomicLong freeTail = new AtomicLong();
+
+  // A claimed slot the producer abandoned. Only ever touched by the producer thread.
+  private T spare;
+
+  private final AtomicLong publishedCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  /**
+   * @param capacity The maximum number of published frames waiting for the consumer.
+   * @param policy What to do when the producer publishes into a full queue.
+   * @param factory Creates the slots. capacity + 2 slots are created: one for the producer to
+   *     fill and one for the consumer to read while the queue itself is full.
+   */
+  public FrameQueue(final int capacity, final OverflowPolicy policy, final SlotFactory<T> factory) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    this.policy = policy;
+    pending = new AtomicReferenceArray<T>(capacity);
+
+    final int slots = capacity + 2;
+    free = new AtomicReferenceArray<T>(slots);
+    for (int i = 0; i < slots; ++i) {
+      free.set(i, factory.create());
+    }
+    freeTail.set(slots);
+  }
+
+  /**
+   * Producer only. Returns a slot for the next frame, which the caller owns until it is passed
+   * to {@link #publish(Object)} or {@link #abandon(Object)}. Returns null if the frame should be
+   * dropped under {@link OverflowPolicy#DROP_NEWEST}; the drop is counted.
+   */
+  public T claim() {
+    if (spare != null) {
+      final T slot = spare;
+      spare = null;
+      return slot;
+    }
+
+    while (true) {
+      if (pendingTail.get() - pendingHead.get() < pending.length()) {
+        // With room in the queue and the consumer holding at most one slot, at least one slot
+        // is free; it may just not have been handed back yet.
+        final T slot = pollFree();
+        if (slot != null) {
+          return slot;
+        }
+        Thread.yield();
+        continue;
+      }
+
+      switch (policy) {
+        case DROP_OLDEST:
+          final T oldest = popPending();
+          if (oldest != null) {
+            droppedCount.incrementAndGet();
+            return oldest;
+          }
+          // The consumer emptied the queue in the meantime, so there is room again.
+          break;
+        case DROP_NEWEST:
+          droppedCount.incrementAndGet();
+          return null;
+        case BLOCK:
+          LockSupport.parkNanos(BLOCK_PARK_NANOS);
+          if (Thread.interrupted()) {
+            Thread.currentThread().interrupt();
+            return null;
+          }
+          break;
+      }
+    }
+  }
+
+  /** Producer only. Hands a filled slot over to the consumer. */
+  public void publish(final T slot) {
+    final long tail = pendingTail.get();
+    // claim() only hands out a slot when the queue has room for it.
+    pending.set((int) (tail % pending.length()), slot);
+    pendingTail.lazySet(tail + 1);
+    publishedCount.incrementAndGet();
+  }
+
+  /** Producer only. Returns a claimed slot that won't be published, e.g. after an error. */
+  public void abandon(final T slot) {
+    spare = slot;
+  }
+
+  /**
+   * Consumer only. Returns the oldest published frame, which the caller owns until it is passed
+   * to {@link #recycle(Object)}, or null if none is waiting.
+   */
+  public T poll() {
+    return popPending();
+  }
+
+  /** Consumer only. Returns a slot obtained from {@link #poll()} to the producer. */
+  public void recycle(final T slot) {
+    final long tail = freeTail.get();
+    free.set((int) (tail % free.length()), slot);
+    freeTail.lazySet(tail + 1);
+  }
+
+  private T popPending() {
+    while (true) {
+      final long head = pendingHead.get();
+      if (head >= pendingTail.get()) {
+        return null;
+      }
+      final T slot = pending.get((int) (head % pending.length()));
+      if (pendingHead.compareAndSet(head, head + 1)) {
+        return slot;
+      }
+    }
+  }
+
+  private T pollFree() {
+    final long head = freeHead.get();
+    if (head >= freeTail.get()) {
+      return null;
+    }
+    final int index = (int) (head % free.length());
+    final T slot = free.get(index);
+    free.set(index, null);
+    freeHead.lazySet(head + 1);
+    return slot;
+  }
+
+  /** Returns the number of frames currently waiting for the consumer. */
+  public int size() {
+    return (int) Math.max(0, pendingTail.get() - pendingHead.get());
+  }
+
+  public OverflowPolicy getPolicy() {
+    return policy;
+  }
+
+  public long getPublishedCount() {
+    return publishedCount.get();
+  }
+
+  /** Returns the number of frames discarded because the queue was full. */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+}
@@ -20,6 +20,7 @@ import android.graphics.Matrix;
 import android.os.Environment;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Utility class for manipulating images.
@@ -28,10 +29,22 @@ public class ImageUtils {
   @SuppressWarnings("unused")
   private static final Logger LOGGER = new Logger();
 
+  private static final String KERNEL_VARIANT;
+
   static {
     System.loadLibrary("imageutil");
+    // Pick the fastest kernels for this device's ABI and CPU before any conversion runs.
+    KERNEL_VARIANT = selectKernels();
+    LOGGER.i("Using %s imageutil kernels", KERNEL_VARIANT);
+  }
+
+  /** Returns a short description of the native kernels selected for this device. */
+  public static String getKernelVariant() {
+    return KERNEL_VARIANT;
   }
 
+  private static native String selectKernels();
+
   /**
    * Utility method to compute the allocated size in bytes of a YUV420SP image
    * of the given dimensions.
@@ -127,6 +140,29 @@ public class ImageUtils {
       int uvPixelStride,
       boolean halfSize);
 
+  /**
+   * The same as {@link #convertYUV420ToARGB8888}, but reads the planes from direct buffers such
+   * as those handed out by {@link FramePool}, so no copy is made on the way into native code.
+   * The buffers' positions are ignored; each plane starts at the buffer's base address.
+   *
+   * @param y The Y plane, in a direct buffer.
+   * @param u The U plane, in a direct buffer.
+   * @param v The V plane, in a direct buffer.
+   * @param output A pre-allocated array for the ARGB 8:8:8:8 output data.
+   * @param width The width of the input image.
+   * @param height The height of the input image.
+   */
+  public static native void convertYUV420ToARGB8888Direct(
+      ByteBuffer y,
+      ByteBuffer u,
+      ByteBuffer v,
+      int[] output,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride);
+
   /**
    * Converts YUV420 semi-planar data to RGB 565 data using the supplied width
    * and height. The input and output must already be allocated and non-null.
@@ -166,6 +202,91 @@ public class ImageUtils {
   public static native void convertRGB565ToYUV420SP(
       byte[] input, byte[] output, int width, int height);
 
+  /**
+   * The same as {@link #convertARGB8888ToYUV420SP}, but encodes bands of row pairs on up to
+   * numThreads native threads. The output is identical to the single-threaded version.
+   *
+   * @param input An array of input pixels in ARGB8888 format.
+   * @param output A pre-allocated array for the YUV420SP output data.
+   * @param width The width of the input image.
+   * @param height The height of the input image.
+   * @param numThreads The maximum number of threads to use, including the calling thread.
+   */
+  public static native void convertARGB8888ToYUV420SPThreaded(
+      int[] input, byte[] output, int width, int height, int numThreads);
+
+  /**
+   * The same as {@link #convertRGB565ToYUV420SP}, but encodes bands of row pairs on up to
+   * numThreads native threads. The output is identical to the single-threaded version.
+   *
+   * @param input An array of input pixels in RGB565 format.
+   * @param output A pre-allocated array for the YUV420SP output data.
+   * @param width The width of the input image.
+   * @param height The height of the input image.
+   * @param numThreads The maximum number of threads to use, including the calling thread.
+   */
+  public static native void convertRGB565ToYUV420SPThreaded(
+      byte[] input, byte[] output, int width, int height, int numThreads);
+
+  /**
+   * Computes the variance of the Laplacian of a luminance plane, a cheap measure of how sharp
+   * the image is. Blurry frames score low. Border pixels are skipped.
+   *
+   * @param y The Y plane of a YUV 4:2:0 image, in a direct buffer.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   * @param yRowStride The distance in bytes between the starts of consecutive rows.
+   * @param step Sample every step-th row; 1 examines every pixel.
+   * @return The Laplacian variance, or 0 if the image is too small to measure.
+   */
+  public static native float computeLaplacianVariance(
+      ByteBuffer y, int width, int height, int yRowStride, int step);
+
+  /**
+   * Computes the mean value of a luminance plane.
+   *
+   * @param y The Y plane of a YUV 4:2:0 image, in a direct buffer.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   * @param yRowStride The distance in bytes between the starts of consecutive rows.
+   * @param step Sample every step-th row; 1 examines every pixel.
+   * @return The mean luminance in the range [0, 255].
+   */
+  public static native float computeMeanLuminance(
+      ByteBuffer y, int width, int height, int yRowStride, int step);
+
+  /**
+   * Box-filters a luminance plane down to a small packed thumbnail, suitable for comparing
+   * frames with {@link #computeLumaDifference}. The output must already be allocated with at
+   * least outWidth * outHeight bytes.
+   *
+   * @param y The Y plane of a YUV 4:2:0 image, in a direct buffer.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   * @param yRowStride The distance in bytes between the starts of consecutive rows.
+   * @param output A pre-allocated array for the thumbnail.
+   * @param outWidth The width of the thumbnail.
+   * @param outHeight The height of the thumbnail.
+   */
+  public static native void downsampleLuma(
+      ByteBuffer y,
+      int width,
+      int height,
+      int yRowStride,
+      byte[] output,
+      int outWidth,
+      int outHeight);
+
+  /**
+   * Computes the mean absolute difference between two luminance buffers of equal size.
+   *
+   * @param a The first buffer, e.g. a thumbnail from {@link #downsampleLuma}.
+   * @param b The second buffer.
+   * @param length The number of bytes to compare.
+   * @return The mean absolute difference in the range [0, 255].
+   */
+  public static native float computeLumaDifference(byte[] a, byte[] b, int length);
+
   /**
    * Returns a transformation matrix from one reference frame into another.
    * Handles cropping (if maintaining aspect ratio is desired) and rotation.
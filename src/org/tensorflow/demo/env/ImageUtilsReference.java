@@ -0,0 +1,341 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pure Java implementations of the native methods in {@link ImageUtils}, written for clarity
+ * rather than speed. Each method produces exactly the same output as its native counterpart on
+ * a little-endian, non-Apple target, so the native kernels can be checked against these on any
+ * host. This class has no Android dependencies.
+ **/
+public final class ImageUtilsReference {
+  // This value is 2 ^ 18 - 1, and is used to clamp the RGB values before their ranges
+  // are normalized to eight bits.
+  private static final int MAX_CHANNEL_VALUE = 262143;
+
+  private ImageUtilsReference() {}
+
+  private static int clampChannel(final int value) {
+    return Math.min(MAX_CHANNEL_VALUE, Math.max(0, value));
+  }
+
+  private static int yuvToRgb(int nY, int nU, int nV) {
+    nY -= 16;
+    nU -= 128;
+    nV -= 128;
+    if (nY < 0) nY = 0;
+
+    final int nR = clampChannel(1192 * nY + 1634 * nV);
+    final int nG = clampChannel(1192 * nY - 833 * nV - 400 * nU);
+    final int nB = clampChannel(1192 * nY + 2066 * nU);
+
+    return 0xff000000 | (((nR >> 10) & 0xff) << 16) | (((nG >> 10) & 0xff) << 8)
+        | ((nB >> 10) & 0xff);
+  }
+
+  /** @see ImageUtils#convertYUV420SPToARGB8888 */
+  public static void convertYUV420SPToARGB8888(
+      final byte[] input, final int[] output, final int width, final int height,
+      final boolean halfSize) {
+    if (halfSize) {
+      convertYUV420SPToARGB8888HalfSize(input, output, width, height);
+      return;
+    }
+
+    final int uvStart = width * height;
+    int out = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        final int nY = input[y * width + x] & 0xff;
+        final int offset = uvStart + (y >> 1) * width + 2 * (x >> 1);
+        final int nV = input[offset] & 0xff;
+        final int nU = input[offset + 1] & 0xff;
+        output[out++] = yuvToRgb(nY, nU, nV);
+      }
+    }
+  }
+
+  private static void convertYUV420SPToARGB8888HalfSize(
+      final byte[] input, final int[] output, final int width, final int height) {
+    final int stride = width;
+    final int halfWidth = width >> 1;
+    final int halfHeight = height >> 1;
+
+    int pY = 0;
+    int pUV = width * height;
+    int out = 0;
+    for (int y = 0; y < halfHeight; y++) {
+      for (int x = 0; x < halfWidth; x++) {
+        final int nY =
+            ((input[pY] & 0xff)
+                    + (input[pY + 1] & 0xff)
+                    + (input[pY + stride] & 0xff)
+                    + (input[pY + stride + 1] & 0xff))
+                >> 2;
+        pY += 2;
+        final int nV = input[pUV++] & 0xff;
+        final int nU = input[pUV++] & 0xff;
+        output[out++] = yuvToRgb(nY, nU, nV);
+      }
+      pY += stride;
+    }
+  }
+
+  /**
+   * @see ImageUtils#convertYUV420ToARGB8888
+   *
+   * <p>As with the native method, halfSize treats the y array as a packed YUV420SP image and
+   * ignores u, v and the strides.
+   */
+  public static void convertYUV420ToARGB8888(
+      final byte[] y,
+      final byte[] u,
+      final byte[] v,
+      final int[] output,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final boolean halfSize) {
+    if (halfSize) {
+      convertYUV420SPToARGB8888HalfSize(y, output, width, height);
+      return;
+    }
+    convertYUV420ToARGB8888Direct(
+        ByteBuffer.wrap(y), ByteBuffer.wrap(u), ByteBuffer.wrap(v), output, width, height,
+        yRowStride, uvRowStride, uvPixelStride);
+  }
+
+  /**
+   * @see ImageUtils#convertYUV420ToARGB8888Direct
+   *
+   * <p>Unlike the native method this also accepts heap buffers.
+   */
+  public static void convertYUV420ToARGB8888Direct(
+      final ByteBuffer y,
+      final ByteBuffer u,
+      final ByteBuffer v,
+      final int[] output,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride) {
+    int out = 0;
+    for (int row = 0; row < height; row++) {
+      final int yRowStart = yRowStride * row;
+      final int uvRowStart = uvRowStride * (row >> 1);
+      for (int x = 0; x < width; x++) {
+        final int uvOffset = uvRowStart + (x >> 1) * uvPixelStride;
+        output[out++] =
+            yuvToRgb(y.get(yRowStart + x) & 0xff, u.get(uvOffset) & 0xff, v.get(uvOffset) & 0xff);
+      }
+    }
+  }
+
+  /**
+   * @see ImageUtils#convertYUV420SPToRGB565
+   *
+   * <p>Each output pixel is written as two bytes, low byte first.
+   */
+  public static void convertYUV420SPToRGB565(
+      final byte[] input, final byte[] output, final int width, final int height) {
+    final int uvStart = width * height;
+    int out = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int nY = input[y * width + x] & 0xff;
+        final int offset = uvStart + (y >> 1) * width + 2 * (x >> 1);
+        int nV = input[offset] & 0xff;
+        int nU = input[offset + 1] & 0xff;
+
+        nY -= 16;
+        nU -= 128;
+        nV -= 128;
+        if (nY < 0) nY = 0;
+
+        final int nR = (clampChannel(1192 * nY + 1634 * nV) >> 13) & 0x1f;
+        final int nG = (clampChannel(1192 * nY - 833 * nV - 400 * nU) >> 12) & 0x3f;
+        final int nB = (clampChannel(1192 * nY + 2066 * nU) >> 13) & 0x1f;
+
+        final int rgb = (nR << 11) | (nG << 5) | nB;
+        output[out++] = (byte) rgb;
+        output[out++] = (byte) (rgb >> 8);
+      }
+    }
+  }
+
+  // Using formulas from http://msdn.microsoft.com/en-us/library/ms893078, with U and V
+  // accumulated one quarter at a time exactly as the original per-pixel encoder did.
+  private static void writeYUV(
+      final int x, final int y, final int width, final int height,
+      final int r8, final int g8, final int b8, final byte[] output) {
+    output[y * width + x] = (byte) (((66 * r8 + 129 * g8 + 25 * b8 + 128) >> 8) + 16);
+
+    // Odd widths get rounded up so that UV blocks on the side don't get cut off.
+    final int blocksPerRow = (width + 1) / 2;
+    final int offset = width * height + 2 * ((y / 2) * blocksPerRow + (x / 2));
+    if ((x & 1) == 0 && (y & 1) == 0) {
+      output[offset] = 0;
+      output[offset + 1] = 0;
+    }
+    output[offset] += (byte) (((112 * r8 - 94 * g8 - 18 * b8 + 128) >> 10) + 32);
+    output[offset + 1] += (byte) (((-38 * r8 - 74 * g8 + 112 * b8 + 128) >> 10) + 32);
+  }
+
+  /** @see ImageUtils#convertARGB8888ToYUV420SP */
+  public static void convertARGB8888ToYUV420SP(
+      final int[] input, final byte[] output, final int width, final int height) {
+    int in = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        final int rgb = input[in++];
+        writeYUV(x, y, width, height,
+            (rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF, output);
+      }
+    }
+  }
+
+  /**
+   * @see ImageUtils#convertRGB565ToYUV420SP
+   *
+   * <p>Each input pixel is read as two bytes, low byte first.
+   */
+  public static void convertRGB565ToYUV420SP(
+      final byte[] input, final byte[] output, final int width, final int height) {
+    int in = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        final int rgb = (input[in] & 0xff) | ((input[in + 1] & 0xff) << 8);
+        in += 2;
+
+        final int r5 = (rgb >> 11) & 0x1F;
+        final int g6 = (rgb >> 5) & 0x3F;
+        final int b5 = rgb & 0x1F;
+        writeYUV(x, y, width, height,
+            r5 << 3 | r5 >> 2, g6 << 2 | g6 >> 4, b5 << 3 | b5 >> 2, output);
+      }
+    }
+  }
+
+  /** @see ImageUtils#convertARGB8888ToYUV420SPThreaded */
+  public static void convertARGB8888ToYUV420SPThreaded(
+      final int[] input, final byte[] output, final int width, final int height,
+      final int numThreads) {
+    convertARGB8888ToYUV420SP(input, output, width, height);
+  }
+
+  /** @see ImageUtils#convertRGB565ToYUV420SPThreaded */
+  public static void convertRGB565ToYUV420SPThreaded(
+      final byte[] input, final byte[] output, final int width, final int height,
+      final int numThreads) {
+    convertRGB565ToYUV420SP(input, output, width, height);
+  }
+
+  /** @see ImageUtils#computeLaplacianVariance */
+  public static float computeLaplacianVariance(
+      final ByteBuffer y, final int width, final int height, final int yRowStride,
+      final int step) {
+    if (width < 3 || height < 3 || step < 1) {
+      return 0.0f;
+    }
+
+    long sum = 0;
+    long sumSq = 0;
+    long count = 0;
+    for (int row = 1; row < height - 1; row += step) {
+      final int start = row * yRowStride;
+      for (int x = 1; x < width - 1; x++) {
+        final int lap =
+            (y.get(start - yRowStride + x) & 0xff)
+                + (y.get(start + yRowStride + x) & 0xff)
+                + (y.get(start + x - 1) & 0xff)
+                + (y.get(start + x + 1) & 0xff)
+                - 4 * (y.get(start + x) & 0xff);
+        sum += lap;
+        sumSq += lap * lap;
+        ++count;
+      }
+    }
+
+    final double mean = (double) sum / count;
+    return (float) ((double) sumSq / count - mean * mean);
+  }
+
+  /** @see ImageUtils#computeMeanLuminance */
+  public static float computeMeanLuminance(
+      final ByteBuffer y, final int width, final int height, final int yRowStride,
+      final int step) {
+    if (width <= 0 || height <= 0 || step < 1) {
+      return 0.0f;
+    }
+
+    long sum = 0;
+    long count = 0;
+    for (int row = 0; row < height; row += step) {
+      for (int x = 0; x < width; x++) {
+        sum += y.get(row * yRowStride + x) & 0xff;
+        ++count;
+      }
+    }
+    return (float) ((double) sum / count);
+  }
+
+  /** @see ImageUtils#downsampleLuma */
+  public static void downsampleLuma(
+      final ByteBuffer y,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final byte[] output,
+      final int outWidth,
+      final int outHeight) {
+    int out = 0;
+    for (int oy = 0; oy < outHeight; ++oy) {
+      final int y0 = oy * height / outHeight;
+      final int y1 = Math.max((oy + 1) * height / outHeight, y0 + 1);
+      for (int ox = 0; ox < outWidth; ++ox) {
+        final int x0 = ox * width / outWidth;
+        final int x1 = Math.max((ox + 1) * width / outWidth, x0 + 1);
+
+        int sum = 0;
+        for (int row = y0; row < y1; ++row) {
+          for (int x = x0; x < x1; ++x) {
+            sum += y.get(row * yRowStride + x) & 0xff;
+          }
+        }
+        final int area = (y1 - y0) * (x1 - x0);
+        output[out++] = (byte) ((sum + area / 2) / area);
+      }
+    }
+  }
+
+  /** @see ImageUtils#computeLumaDifference */
+  public static float computeLumaDifference(final byte[] a, final byte[] b, final int length) {
+    if (length <= 0) {
+      return 0.0f;
+    }
+
+    long sum = 0;
+    for (int i = 0; i < length; ++i) {
+      sum += Math.abs((a[i] & 0xff) - (b[i] & 0xff));
+    }
+    return (float) ((double) sum / length);
+  }
+}
@@ -0,0 +1,249 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import java.util.ArrayDeque;
+
+/**
+ * Runs tasks on a single background thread from two lanes.
+ *
+ * <p>The control lane is for work that must not be lost, such as loading or closing a model. It
+ * is unbounded, and its tasks always run before any waiting frame. The frame lane is for
+ * per-frame work that is worthless once stale. It holds at most {@code frameCapacity} tasks,
+ * dropping the oldest to make room. Frames that waited longer than {@code maxFrameWaitMs} are
+ * dropped instead of run. Frame tasks can also be cancelled through their {@link Ticket}. A slow
+ * control task, such as switching runtimes, therefore never leaves a backlog of stale frames.
+ *
+ * <p>All methods may be called from any thread.
+ */
+public class InferenceScheduler {
+  private static final Logger LOGGER = new Logger();
+
+  // Weight of the newest sample in the average wait time.
+  private static final float WAIT_SMOOTHING = 0.1f;
+
+  /** A handle on a submitted task. */
+  public static class Ticket {
+    private volatile boolean cancelled = false;
+    private volatile boolean finished = false;
+
+    /** Keeps the task from running if it hasn't started yet. */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    /** Returns whether the task was cancelled, dropped or never queued, and so won't run. */
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    /** Returns whether the task has run, whether or not it completed normally. */
+    public boolean isFinished() {
+      return finished;
+    }
+  }
+
+  private static class Entry {
+    final Runnable task;
+    final Ticket ticket = new Ticket();
+    final long submitTimeMs = SystemClock.uptimeMillis();
+
+    Entry(final Runnable task) {
+      this.task = task;
+    }
+  }
+
+  private final String name;
+  private final int frameCapacity;
+  private final long maxFrameWaitMs;
+
+  private final ArrayDeque<Entry> controlLane = new ArrayDeque<Entry>();
+  private final ArrayDeque<Entry> frameLane = new ArrayDeque<Entry>();
+
+  private HandlerThread thread;
+  private Handler handler;
+
+  private long framesRun = 0;
+  private long framesDropped = 0;
+  private long framesCancelled = 0;
+  private float averageFrameWaitMs = 0;
+  private float averageControlWaitMs = 0;
+  private int maxFrameDepth = 0;
+
+  /**
+   * @param name The name of the background thread.
+   * @param frameCapacity The maximum number of frame tasks waiting to run.
+   * @param maxFrameWaitMs How long a frame task may wait before it is dropped as stale.
+   */
+  public InferenceScheduler(final String name, final int frameCapacity, final long maxFrameWaitMs) {
+    if (frameCapacity < 1) {
+      throw new IllegalArgumentException("Frame capacity must be positive: " + frameCapacity);
+    }
+    this.name = name;
+    this.frameCapacity = frameCapacity;
+    this.maxFrameWaitMs = maxFrameWaitMs;
+  }
+
+  /** Starts the background thread. Tasks submitted while stopped are ignored. */
+  public synchronized void start() {
+    if (thread != null) {
+      return;
+    }
+    thread = new HandlerThread(name);
+    thread.start();
+    handler = new Handler(thread.getLooper());
+  }
+
+  /**
+   * Drops all waiting frames, runs all waiting control tasks and stops the background thread.
+   * Blocks until the thread has finished.
+   */
+  public void stop() {
+    final HandlerThread stopping;
+    synchronized (this) {
+      if (thread == null) {
+        return;
+      }
+      cancelFrames();
+      stopping = thread;
+      thread = null;
+      handler = null;
+    }
+    // Every waiting control task has a drain message posted, and quitSafely() delivers those.
+    stopping.quitSafely();
+    try {
+      stopping.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOGGER.e(e, "Interrupted while stopping %s", name);
+    }
+  }
+
+  /** Queues a task on the control lane. */
+  public synchronized Ticket runControl(final Runnable task) {
+    return submit(controlLane, task);
+  }
+
+  /** Queues a task on the frame lane, dropping the oldest waiting frame if the lane is full. */
+  public synchronized Ticket runFrame(final Runnable task) {
+    while (frameLane.size() >= frameCapacity) {
+      frameLane.poll().ticket.cancel();
+      ++framesDropped;
+    }
+    final Ticket ticket = submit(frameLane, task);
+    maxFrameDepth = Math.max(maxFrameDepth, frameLane.size());
+    return ticket;
+  }
+
+  /** Cancels every frame task that hasn't started yet. Returns how many were cancelled. */
+  public synchronized int cancelFrames() {
+    final int cancelled = frameLane.size();
+    for (final Entry entry : frameLane) {
+      entry.ticket.cancel();
+    }
+    frameLane.clear();
+    framesCancelled += cancelled;
+    return cancelled;
+  }
+
+  public synchronized int getFrameDepth() {
+    return frameLane.size();
+  }
+
+  public synchronized int getControlDepth() {
+    return controlLane.size();
+  }
+
+  public synchronized float getAverageFrameWaitMs() {
+    return averageFrameWaitMs;
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "Scheduler: %d/%d frames queued (max %d), %d run, %d dropped, %d cancelled, "
+            + "wait %.0fms, control %d queued, wait %.0fms",
+        frameLane.size(),
+        frameCapacity,
+        maxFrameDepth,
+        framesRun,
+        framesDropped,
+        framesCancelled,
+        averageFrameWaitMs,
+        controlLane.size(),
+        averageControlWaitMs);
+  }
+
+  private Ticket submit(final ArrayDeque<Entry> lane, final Runnable task) {
+    final Entry entry = new Entry(task);
+    if (handler == null) {
+      entry.ticket.cancel();
+      return entry.ticket;
+    }
+    lane.add(entry);
+    // One drain per task. Drains outnumber tasks once frames are dropped, and the extra ones
+    // find nothing to run.
+    handler.post(drain);
+    return entry.ticket;
+  }
+
+  private final Runnable drain =
+      new Runnable() {
+        @Override
+        public void run() {
+          final Entry entry = next();
+          if (entry != null) {
+            try {
+              entry.task.run();
+            } finally {
+              entry.ticket.finished = true;
+            }
+          }
+        }
+      };
+
+  /** Takes the next task to run: control first, then the oldest frame that is still fresh. */
+  private synchronized Entry next() {
+    final long now = SystemClock.uptimeMillis();
+    final Entry control = controlLane.poll();
+    if (control != null) {
+      averageControlWaitMs = smooth(averageControlWaitMs, now - control.submitTimeMs);
+      return control;
+    }
+
+    Entry frame;
+    while ((frame = frameLane.poll()) != null) {
+      final long waitMs = now - frame.submitTimeMs;
+      if (frame.ticket.isCancelled()) {
+        ++framesCancelled;
+      } else if (waitMs > maxFrameWaitMs) {
+        frame.ticket.cancel();
+        ++framesDropped;
+      } else {
+        ++framesRun;
+        averageFrameWaitMs = smooth(averageFrameWaitMs, waitMs);
+        return frame;
+      }
+    }
+    return null;
+  }
+
+  private static float smooth(final float average, final long sample) {
+    return average + WAIT_SMOOTHING * (sample - average);
+  }
+}
@@ -0,0 +1,182 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.graphics.RectF;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Finds the regions of a frame most worth classifying, scored by luma gradient energy (texture
+ * and edges, i.e. objects rather than bare countertop) plus frame-to-frame luma change (whatever
+ * the user is moving or pointing at).
+ *
+ * <p>Works on a small box-filtered luma thumbnail, so each update costs one sampled pass over
+ * the luma plane plus a few thousand operations in Java. Not thread-safe.
+ */
+public class SaliencyMap {
+  private final int thumbnailWidth;
+  private final float motionWeight;
+
+  private int frameWidth;
+  private int frameHeight;
+  private int thumbnailHeight;
+  private byte[] thumbnail;
+  private byte[] previousThumbnail;
+  private boolean hasPrevious;
+  // Summed-area table of the saliency, (thumbnailWidth + 1) x (thumbnailHeight + 1).
+  private int[] integral;
+
+  // Candidate windows for findRegions(), in thumbnail pixels.
+  private int[] candidateX = new int[0];
+  private int[] candidateY = new int[0];
+  private int[] candidateScore = new int[0];
+
+  /**
+   * @param thumbnailWidth Width of the thumbnail saliency is computed at. The height follows the
+   *     frame's aspect ratio.
+   * @param motionWeight How much a unit of frame-to-frame change counts relative to a unit of
+   *     gradient.
+   */
+  public SaliencyMap(final int thumbnailWidth, final float motionWeight) {
+    this.thumbnailWidth = thumbnailWidth;
+    this.motionWeight = motionWeight;
+  }
+
+  /** Computes the saliency of a new frame from its luma plane. */
+  public void update(final ByteBuffer y, final int width, final int height, final int yRowStride) {
+    if (width != frameWidth || height != frameHeight) {
+      frameWidth = width;
+      frameHeight = height;
+      thumbnailHeight = Math.max(1, Math.round((float) thumbnailWidth * height / width));
+      thumbnail = new byte[thumbnailWidth * thumbnailHeight];
+      previousThumbnail = new byte[thumbnailWidth * thumbnailHeight];
+      integral = new int[(thumbnailWidth + 1) * (thumbnailHeight + 1)];
+      hasPrevious = false;
+    }
+
+    ImageUtils.downsampleLuma(
+        y, width, height, yRowStride, thumbnail, thumbnailWidth, thumbnailHeight);
+
+    final int stride = thumbnailWidth + 1;
+    final int motionScale = Math.round(motionWeight * 256);
+    for (int row = 0; row < thumbnailHeight; ++row) {
+      int rowSum = 0;
+      for (int col = 0; col < thumbnailWidth; ++col) {
+        final int index = row * thumbnailWidth + col;
+        final int value = thumbnail[index] & 0xff;
+        final int right = col + 1 < thumbnailWidth ? thumbnail[index + 1] & 0xff : value;
+        final int below =
+            row + 1 < thumbnailHeight ? thumbnail[index + thumbnailWidth] & 0xff : value;
+        int saliency = Math.abs(right - value) + Math.abs(below - value);
+        if (hasPrevious) {
+          saliency += (motionScale * Math.abs(value - (previousThumbnail[index] & 0xff))) >> 8;
+        }
+        rowSum += saliency;
+        integral[(row + 1) * stride + col + 1] = integral[row * stride + col + 1] + rowSum;
+      }
+    }
+
+    final byte[] tmp = previousThumbnail;
+    previousThumbnail = thumbnail;
+    thumbnail = tmp;
+    hasPrevious = true;
+  }
+
+  /**
+   * Picks up to {@code regions.size()} square regions with the highest total saliency, skipping
+   * any that overlap an already picked one by more than {@code maxOverlap}.
+   *
+   * @param scale The region side as a fraction of the frame's shorter side, in (0, 1].
+   * @param maxOverlap The largest intersection over union allowed between two picked regions.
+   * @param regions Receives the regions, most salient first, in frame pixels.
+   * @return The number of regions written, 0 before the first update.
+   */
+  public int findRegions(final float scale, final float maxOverlap, final List<RectF> regions) {
+    if (integral == null) {
+      return 0;
+    }
+    final int side = Math.max(1, Math.round(scale * Math.min(thumbnailWidth, thumbnailHeight)));
+    final int step = Math.max(1, side / 4);
+    final int columns = (thumbnailWidth - side) / step + 1;
+    final int rows = (thumbnailHeight - side) / step + 1;
+    final int count = columns * rows;
+    if (candidateScore.length < count) {
+      candidateX = new int[count];
+      candidateY = new int[count];
+      candidateScore = new int[count];
+    }
+
+    final int stride = thumbnailWidth + 1;
+    int n = 0;
+    for (int row = 0; row < rows; ++row) {
+      for (int col = 0; col < columns; ++col) {
+        final int x = col * step;
+        final int y = row * step;
+        candidateX[n] = x;
+        candidateY[n] = y;
+        candidateScore[n] =
+            integral[(y + side) * stride + x + side]
+                - integral[y * stride + x + side]
+                - integral[(y + side) * stride + x]
+                + integral[y * stride + x];
+        ++n;
+      }
+    }
+
+    final float toFrame = (float) frameWidth / thumbnailWidth;
+    int found = 0;
+    while (found < regions.size()) {
+      int best = -1;
+      for (int i = 0; i < n; ++i) {
+        if (candidateScore[i] >= 0 && (best < 0 || candidateScore[i] > candidateScore[best])) {
+          best = i;
+        }
+      }
+      if (best < 0) {
+        break;
+      }
+      final int bestX = candidateX[best];
+      final int bestY = candidateY[best];
+      regions.get(found++).set(
+          bestX * toFrame,
+          bestY * toFrame,
+          Math.min(frameWidth, (bestX + side) * toFrame),
+          Math.min(frameHeight, (bestY + side) * toFrame));
+
+      // Retire the pick and everything overlapping it too much. Scores are never negative, so
+      // -1 marks a retired candidate.
+      for (int i = 0; i < n; ++i) {
+        if (candidateScore[i] >= 0
+            && squareOverlap(bestX, bestY, candidateX[i], candidateY[i], side) > maxOverlap) {
+          candidateScore[i] = -1;
+        }
+      }
+    }
+    return found;
+  }
+
+  private static float squareOverlap(
+      final int ax, final int ay, final int bx, final int by, final int side) {
+    final int width = side - Math.abs(ax - bx);
+    final int height = side - Math.abs(ay - by);
+    if (width <= 0 || height <= 0) {
+      return 0;
+    }
+    final float intersection = (float) width * height;
+    return intersection / (2.0f * side * side - intersection);
+  }
+}
@@ -0,0 +1,128 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+/**
+ * Decides when the next preview frame should be classified in continuous-scan mode.
+ *
+ * <p>The interval between classifications is derived from the measured inference latency so that
+ * inference occupies at most {@code budget} of the wall-clock time, e.g. a 200ms model with a
+ * budget of 0.5 is run at most every 400ms. The interval is stretched further as the device
+ * warms up, and scanning is suspended altogether once it is hot.
+ *
+ * <p>Thread-safe: latency is reported from the inference thread while frames are scheduled from
+ * the camera thread.
+ */
+public class ScanRateController {
+  // Weight of each new latency sample in the moving average.
+  private static final float LATENCY_SMOOTHING = 0.2f;
+
+  private final long minIntervalMs;
+  private final float throttleCelsius;
+  private final float suspendCelsius;
+
+  private float budget;
+  private float averageLatencyMs = 0;
+  private float temperatureCelsius = Float.NaN;
+  private long lastScheduledMs = Long.MIN_VALUE / 2;
+  private long scheduledCount = 0;
+
+  /**
+   * @param budget Fraction of wall-clock time inference may use, in (0, 1].
+   * @param minIntervalMs Lower bound on the interval, however fast inference is.
+   * @param throttleCelsius Device temperature above which the interval is stretched.
+   * @param suspendCelsius Device temperature at and above which no frames are scheduled.
+   */
+  public ScanRateController(
+      final float budget,
+      final long minIntervalMs,
+      final float throttleCelsius,
+      final float suspendCelsius) {
+    if (suspendCelsius <= throttleCelsius) {
+      throw new IllegalArgumentException(
+          "Suspend temperature must be above throttle temperature: "
+              + suspendCelsius + " <= " + throttleCelsius);
+    }
+    setBudget(budget);
+    this.minIntervalMs = minIntervalMs;
+    this.throttleCelsius = throttleCelsius;
+    this.suspendCelsius = suspendCelsius;
+  }
+
+  public synchronized void setBudget(final float budget) {
+    if (budget <= 0 || budget > 1) {
+      throw new IllegalArgumentException("Budget must be in (0, 1]: " + budget);
+    }
+    this.budget = budget;
+  }
+
+  public synchronized float getBudget() {
+    return budget;
+  }
+
+  /** Reports the wall-clock time spent processing one scheduled frame. */
+  public synchronized void onInferenceFinished(final long latencyMs) {
+    if (averageLatencyMs == 0) {
+      averageLatencyMs = latencyMs;
+    } else {
+      averageLatencyMs += LATENCY_SMOOTHING * (latencyMs - averageLatencyMs);
+    }
+  }
+
+  /** Reports the current device temperature, e.g. from the battery. */
+  public synchronized void onTemperatureChanged(final float celsius) {
+    temperatureCelsius = celsius;
+  }
+
+  /**
+   * Returns the current minimum time between two scheduled frames, or Long.MAX_VALUE while
+   * scanning is suspended because the device is too hot.
+   */
+  public synchronized long getIntervalMs() {
+    float interval = averageLatencyMs / budget;
+    if (temperatureCelsius >= suspendCelsius) {
+      return Long.MAX_VALUE;
+    } else if (temperatureCelsius > throttleCelsius) {
+      // Grows from 1x at the throttle temperature to 4x just below the suspend temperature.
+      final float heat = (temperatureCelsius - throttleCelsius) / (suspendCelsius - throttleCelsius);
+      interval *= 1 + 3 * heat;
+    }
+    return Math.max(minIntervalMs, (long) interval);
+  }
+
+  /** Returns true if a frame arriving at {@code nowMs} is due to be classified. */
+  public synchronized boolean isDue(final long nowMs) {
+    final long interval = getIntervalMs();
+    return interval != Long.MAX_VALUE && nowMs - lastScheduledMs >= interval;
+  }
+
+  /** Records that a frame was handed to the classifier at {@code nowMs}. */
+  public synchronized void onFrameScheduled(final long nowMs) {
+    lastScheduledMs = nowMs;
+    ++scheduledCount;
+  }
+
+  public synchronized String getStatString() {
+    final long interval = getIntervalMs();
+    return String.format(
+        "Scan: %s, budget %d%%, latency %.0fms, %d frames, temp %.1fC",
+        interval == Long.MAX_VALUE ? "suspended" : "every " + interval + "ms",
+        (int) (budget * 100),
+        averageLatencyMs,
+        scheduledCount,
+        temperatureCelsius);
+  }
+}
@@ -0,0 +1,93 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detects whether a frame shows the same scene as the last frame that was let through, by
+ * comparing small box-filtered luma thumbnails. Costs one pass over the sampled luma plus a
+ * comparison of a few hundred bytes, so it can run on every frame ahead of the classifier.
+ *
+ * <p>Only frames that pass the gate become the new reference, so a slow pan is still noticed
+ * once it has drifted far enough from the last classified frame. Not thread-safe; meant to be
+ * used from the camera thread.
+ */
+public class SceneChangeGate {
+  private final int thumbnailWidth;
+  private final int thumbnailHeight;
+  private final float threshold;
+
+  private byte[] thumbnail;
+  private byte[] reference;
+  private boolean hasReference = false;
+  private float lastDifference = 0;
+
+  private long framesChecked = 0;
+  private long framesSkipped = 0;
+
+  /**
+   * @param thumbnailWidth Width of the luma thumbnail frames are compared at.
+   * @param thumbnailHeight Height of the luma thumbnail frames are compared at.
+   * @param threshold Mean absolute luma difference, 0-255, below which a frame is unchanged.
+   */
+  public SceneChangeGate(final int thumbnailWidth, final int thumbnailHeight, final float threshold) {
+    this.thumbnailWidth = thumbnailWidth;
+    this.thumbnailHeight = thumbnailHeight;
+    this.threshold = threshold;
+    thumbnail = new byte[thumbnailWidth * thumbnailHeight];
+    reference = new byte[thumbnailWidth * thumbnailHeight];
+  }
+
+  /**
+   * Returns true if the frame differs enough from the reference to be classified, in which case
+   * it becomes the new reference. Returns false, and counts a skip, if the scene is unchanged.
+   */
+  public boolean hasChanged(
+      final ByteBuffer y, final int width, final int height, final int yRowStride) {
+    ++framesChecked;
+    ImageUtils.downsampleLuma(
+        y, width, height, yRowStride, thumbnail, thumbnailWidth, thumbnailHeight);
+    if (hasReference) {
+      lastDifference = ImageUtils.computeLumaDifference(thumbnail, reference, thumbnail.length);
+      if (lastDifference < threshold) {
+        ++framesSkipped;
+        return false;
+      }
+    }
+    final byte[] tmp = reference;
+    reference = thumbnail;
+    thumbnail = tmp;
+    hasReference = true;
+    return true;
+  }
+
+  /** Forgets the reference, so the next frame is always let through. */
+  public void reset() {
+    hasReference = false;
+  }
+
+  /** Returns the fraction of checked frames that were skipped as unchanged. */
+  public float getSkipRate() {
+    return framesChecked == 0 ? 0 : (float) framesSkipped / framesChecked;
+  }
+
+  public String getStatString() {
+    return String.format(
+        "Scene gate: %d/%d skipped (%.0f%%), diff %.1f",
+        framesSkipped, framesChecked, getSkipRate() * 100, lastDifference);
+  }
+}